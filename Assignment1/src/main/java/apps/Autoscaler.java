@@ -0,0 +1,172 @@
+package apps;
+
+import handlers.SQSHandler;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Sizes the workers fleet from the actual backlog and the actual speed of the workers.
+ * Every SAMPLE_INTERVAL_SECONDS it samples the (Manager -> Workers) queue depth and in-flight count, and the
+ * number of reviews the workers completed, and computes how many workers are needed to drain the backlog within
+ * TARGET_DRAIN_SECONDS. The result is posted to the ScalingActuator.
+ * To avoid flapping:
+ *      scale-up needs the backlog to exceed the fleet capacity by SCALE_UP_THRESHOLD, and waits SCALE_UP_COOLDOWN,
+ *      scale-down needs SCALE_DOWN_SAMPLES samples in a row that need fewer workers, and waits SCALE_DOWN_COOLDOWN.
+ * Reviews that clients announced but didn't upload yet count as backlog too, so workers boot during the upload.
+ * Workers that were requested and are not ready yet (see StartupTable) are left out of the speed measurement, and
+ * the scale-up cooldown is at least the measured time-to-ready of a new worker, so the fleet isn't grown again before
+ * the last scale-up had a chance to take effect.
+ * The fleet never exceeds the upper bound derived from the users n (reviews per worker) - see ManageClients.
+ */
+public class Autoscaler {
+
+    private static final int SAMPLE_INTERVAL_SECONDS = 10;
+    private static final int TARGET_DRAIN_SECONDS = 120;
+    private static final double SCALE_UP_THRESHOLD = 0.2;
+    private static final int SCALE_DOWN_SAMPLES = 3;
+    private static final long SCALE_UP_COOLDOWN_MILLIS = 30000;
+    private static final long SCALE_DOWN_COOLDOWN_MILLIS = 120000;
+    private static final double RATE_SMOOTHING = 0.3;      // weight of the last sample in the measured rate
+
+    private SQSHandler sqs;
+    private String M2W_QueueURL;
+    private ScalingActuator scaler;
+    private IntSupplier upperBound;
+    private LongSupplier completedReviews;
+    private LongSupplier announcedReviews;
+    private ScheduledExecutorService sampler;
+
+    private long lastCompletedReviews;
+    private long lastSampleTime;
+    private long lastScaleTime;
+    private int belowTargetSamples;
+    private int maxNeededWhileBelow;
+    private double reviewsPerSecondPerWorker;     // 0 until measured
+
+    /**
+     * params: sqs, M2W_QueueURL, scaler - applies the decisions,
+     *         upperBound - the max number of workers allowed by the users n,
+     *         completedReviews - number of new reviews the manager completed so far (a duplicate result or another
+     *                            task of the results pipeline isn't counted),
+     *         announcedReviews - estimated reviews of files the clients announced and didn't send yet
+     */
+    public Autoscaler(SQSHandler sqs, String M2W_QueueURL, ScalingActuator scaler, IntSupplier upperBound,
+                      LongSupplier completedReviews, LongSupplier announcedReviews) {
+        this.sqs = sqs;
+        this.M2W_QueueURL = M2W_QueueURL;
+        this.scaler = scaler;
+        this.upperBound = upperBound;
+        this.completedReviews = completedReviews;
+        this.announcedReviews = announcedReviews;
+        this.reviewsPerSecondPerWorker = 0;
+        this.belowTargetSamples = 0;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("Autoscaler-Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        lastCompletedReviews = completedReviews.getAsLong();
+        lastSampleTime = System.currentTimeMillis();
+        lastScaleTime = 0;
+        sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_SECONDS, SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        sampler.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            long now = System.currentTimeMillis();
+            int queued = sqs.getQueueDepth(M2W_QueueURL);
+            int announced = (int) announcedReviews.getAsLong();
+            int backlog = queued + announced;
+            int inFlight = sqs.getInFlightCount(M2W_QueueURL);
+            int current = scaler.getTarget();
+            int cap = Math.max(upperBound.getAsInt(), 1);
+
+            // measure the workers speed only while they had work all along (otherwise they were just idle)
+            long completed = completedReviews.getAsLong();
+            double seconds = (now - lastSampleTime) / 1000.0;
+            int running = scaler.getCurrentWorkers() - scaler.getStartup().getPendingWorkers();
+            if (queued > 0 && running > 0 && completed > lastCompletedReviews) {
+                double rate = (completed - lastCompletedReviews) / seconds / running;
+                reviewsPerSecondPerWorker = reviewsPerSecondPerWorker == 0 ? rate
+                        : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * reviewsPerSecondPerWorker;
+            }
+            lastCompletedReviews = completed;
+            lastSampleTime = now;
+
+            decide(now, backlog, announced, inFlight, current, cap);
+        }
+        catch (Exception e) {
+            // never let an exception cancel the periodic sampling
+            e.printStackTrace();
+        }
+    }
+
+    private void decide(long now, int backlog, int announced, int inFlight, int current, int cap) {
+        int needed;
+        if (backlog + inFlight == 0) {
+            needed = 1;
+        }
+        else if (reviewsPerSecondPerWorker == 0) {
+            // the speed of the workers is not known yet, size by the users n
+            needed = cap;
+        }
+        else {
+            needed = (int) Math.ceil((backlog + inFlight) / (reviewsPerSecondPerWorker * TARGET_DRAIN_SECONDS));
+        }
+        needed = Math.max(1, Math.min(needed, cap));
+
+        int target = current;
+        String reason = "steady";
+        if (current > cap) {
+            // the users n went down (files were done), this bound is applied right away
+            target = cap;
+            reason = "bound";
+        }
+        else if (needed > current * (1 + SCALE_UP_THRESHOLD)) {
+            belowTargetSamples = 0;
+            long cooldown = Math.max(SCALE_UP_COOLDOWN_MILLIS, (long) scaler.getStartup().getReadyMillis("launch"));
+            if (now - lastScaleTime >= cooldown) {
+                target = needed;
+                reason = "backlog";
+            }
+            else {
+                reason = "up-cooldown";
+            }
+        }
+        else if (needed < current) {
+            maxNeededWhileBelow = belowTargetSamples == 0 ? needed : Math.max(maxNeededWhileBelow, needed);
+            belowTargetSamples++;
+            if (belowTargetSamples >= SCALE_DOWN_SAMPLES && now - lastScaleTime >= SCALE_DOWN_COOLDOWN_MILLIS) {
+                target = maxNeededWhileBelow;
+                reason = "idle";
+            }
+            else {
+                reason = "down-hysteresis";
+            }
+        }
+        else {
+            belowTargetSamples = 0;
+        }
+
+        if (target != current) {
+            lastScaleTime = now;
+            belowTargetSamples = 0;
+            scaler.setTarget(target);
+        }
+        Constants.printDEBUG(String.format("METRICS autoscaler: backlog=%d (announced=%d) inFlight=%d " +
+                "reviewsPerSecPerWorker=%.2f needed=%d bound=%d workers=%d->%d reason=%s",
+                backlog, announced, inFlight, reviewsPerSecondPerWorker, needed, cap, current, target, reason));
+    }
+}
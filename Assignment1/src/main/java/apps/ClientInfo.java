@@ -1,26 +1,57 @@
 package apps;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The state of a single client (local application).
+ * The state of a file (keyed by its input key) has two parts:
+ *      in2outMap    - fixed when the file is registered (output key, total reviews, and the set of its completed
+ *                     reviews, a concurrent set), any thread may read it,
+ *      fileProgress - the counter, the chunk state and the analytics of the file, confined to the apply stage
+ *                     thread that owns the file (see ResultsPipeline), so it is not locked. The apply thread hands
+ *                     the output stage what it needs (the index of a sealed chunk, a snapshot of the analytics).
+ */
 public class ClientInfo {
 
-    // the map is build from: <input key, <output key, count done reviews in this file>>
+    // the map is build from: <input key, <output key, total reviews, completed reviews>>, not modified once put
     private ConcurrentMap<String, Map <String, Object>>  in2outMap;
+    // <input key, <counter, chunk state, analytics>>, read and written by the apply thread of the file only
+    private ConcurrentMap<String, Map <String, Object>>  fileProgress;
     private AtomicInteger outputFilesLeft;
     private AtomicInteger inputFilesRecieved;
     private int reviewsPerWorker;
+    private int numFiles;
+    // the estimate the client pre-announced, against the reviews of the files that were registered so far
+    private volatile long announcedReviews;
+    private volatile int announcedWorkers;
+    private long announceTime;
+    private boolean hasFiles;
+    private boolean isExpired;
+    private AtomicLong registeredReviews;
+    private AtomicInteger registeredFiles;
 
     public ClientInfo(int reviewsPerWorker, int numFiles) {
         this.outputFilesLeft = new AtomicInteger(numFiles);
         this.inputFilesRecieved = new AtomicInteger(0);
         this.reviewsPerWorker = reviewsPerWorker;
+        this.numFiles = numFiles;
         this.in2outMap = new ConcurrentHashMap<>();
+        this.fileProgress = new ConcurrentHashMap<>();
+        this.announcedReviews = 0;
+        this.announcedWorkers = 0;
+        this.hasFiles = false;
+        this.isExpired = false;
+        this.registeredReviews = new AtomicLong(0);
+        this.registeredFiles = new AtomicInteger(0);
     }
 
     public String getLocalFileName(String inBucket, String inputKey){
@@ -32,37 +63,69 @@ public class ClientInfo {
         return (String) in2outMap.get(inputKey).get(Constants.OUT_KEY);
     }
 
-    public long getTotalFileReviews(String inputKey){
-        return (long) in2outMap.get(inputKey).get(Constants.TOTAL_FILE_REVIEWS);
+    public String getLocalChunkFileName(String inBucket, String inputKey){
+        return getLocalFileName(inBucket, inputKey) + "_chunk";
     }
 
-    public void deleteLocalFile(String inBucket, String inputKey){
-        if(getLockForInputKey(inputKey).isHeldByCurrentThread()){
-            System.out.println("Entering deleteLocalFile with lock");
-            getLockForInputKey(inputKey).unlock();
-        }
-        getLockForInputKey(inputKey).lock();
-        boolean isDeleted = false;
-        try {
-            String localFileName = getLocalFileName(inBucket, inputKey);
-            isDeleted = new File(localFileName).delete();
-        }
-        finally {
-            getLockForInputKey(inputKey).unlock();
-        }
+    public String getLocalChunkFileName(String inBucket, String inputKey, int chunkIndex){
+        return getLocalChunkFileName(inBucket, inputKey) + chunkIndex;
     }
 
-    private ReentrantLock getLockForInputKey(String inputKey) {
-        return (ReentrantLock) in2outMap.get(inputKey).get(Constants.LOCK);
+    public String getChunkKey(String inputKey, int chunkIndex){
+        return getOutKey(inputKey) + "_part" + chunkIndex;
     }
 
-    private boolean isNewMessage(String localFileName, String msg) {
-        System.out.println("in new message");
-        if(!new File(localFileName).isFile()){
-            System.out.println("File doesn't exist, return true");
-            return true;
-        }
-        return true;
+    public String getSummaryKey(String inputKey){
+        return getOutKey(inputKey) + Constants.SUMMARY_SUFFIX;
+    }
+
+    /**
+     * Apply thread of the file only - the output stage gets a snapshot of the analytics (see stringifyUsingJSON)
+     */
+    public FileAnalytics getAnalytics(String inputKey){
+        return (FileAnalytics) fileProgress.get(inputKey).get(Constants.ANALYTICS);
+    }
+
+    public Set<String> getInputKeys(){
+        return in2outMap.keySet();
+    }
+
+    public boolean hasInputKey(String inputKey){
+        return in2outMap.containsKey(inputKey);
+    }
+
+    /** Apply thread of the file only */
+    public long getCounter(String inputKey){
+        return (Long) fileProgress.get(inputKey).get(Constants.COUNTER);
+    }
+
+    /**
+     * Apply thread of the file only.
+     * returns: the chunks that were sealed but not published before the manager went down (see restoreFile)
+     */
+    public List<Integer> getPendingChunks(String inputKey){
+        return (List<Integer>) fileProgress.get(inputKey).get(Constants.PENDING_CHUNKS);
+    }
+
+    /**
+     * A review is new if its result wasn't written to the output file yet (a message may be delivered more than once).
+     * This is read by the manage-clients threads as well, to skip reviews that were completed before a recovery.
+     */
+    public boolean isNewReview(String inputKey, String reviewId){
+        return reviewId == null || !getCompletedReviews(inputKey).contains(reviewId);
+    }
+
+    private Set<String> getCompletedReviews(String inputKey){
+        return (Set<String>) in2outMap.get(inputKey).get(Constants.COMPLETED_REVIEWS);
+    }
+
+    public long getTotalFileReviews(String inputKey){
+        return (long) in2outMap.get(inputKey).get(Constants.TOTAL_FILE_REVIEWS);
+    }
+
+    public void deleteLocalFile(String inBucket, String inputKey){
+        String localFileName = getLocalFileName(inBucket, inputKey);
+        new File(localFileName).delete();
     }
 
     private void appendToLocalFile(String localFileName, String msg){
@@ -79,45 +142,158 @@ public class ClientInfo {
         }
     }
 
-    public boolean updateLocalOutputFile(String inputBucket, String inputKey, String msg) {
-        if(getLockForInputKey(inputKey).isHeldByCurrentThread()){
-            System.out.println("Entering updateLocalOutputFile with lock");
-            getLockForInputKey(inputKey).unlock();
+    /** Apply thread of the file only */
+    public boolean updateLocalOutputFile(String inputBucket, String inputKey, String reviewId, String msg) {
+        if (!isNewReview(inputKey, reviewId)) {
+            System.out.println("got a result of a review that was already written, ignoring it");
+            return false;
         }
-        boolean isUpdated = false;
-        getLockForInputKey(inputKey).lock();
-        try{
-            String localFileName = getLocalFileName(inputBucket,inputKey);
-            if (isNewMessage(localFileName, msg)){
-                System.out.println("writing new message");
-                appendToLocalFile(localFileName, msg);
-                isUpdated = true;
-            }
+        System.out.println("writing new message");
+        appendToLocalFile(getLocalFileName(inputBucket,inputKey), msg);
+        appendToLocalFile(getLocalChunkFileName(inputBucket, inputKey), msg);
+        if (reviewId != null)
+            getCompletedReviews(inputKey).add(reviewId);
+        Map<String, Object> progress = fileProgress.get(inputKey);
+        progress.put(Constants.CHUNK_LINES, (Integer) progress.get(Constants.CHUNK_LINES) + 1);
+        return true;
+    }
+
+    /** Apply thread of the file only */
+    public long decOutputCounter(String inputKey) {
+        Map<String, Object> progress = fileProgress.get(inputKey);
+        long newCounter = (Long) progress.get(Constants.COUNTER) -1;
+        progress.put(Constants.COUNTER, newCounter);
+        return newCounter;
+    }
+
+    /**
+     * Seals the current chunk of this file's output, if it is due, so it can be published to the client.
+     * A chunk is due when it holds REVIEWS_PER_CHUNK reviews, when CHUNK_INTERVAL_MILLIS passed since the last
+     * chunk, or when this is the last chunk of the file (which is sealed even if empty). Apply thread of the file only.
+     * params: inBucket, inputKey, isLast
+     * returns: the index of the sealed chunk (its local file is getLocalChunkFileName(inBucket, inputKey, index)),
+     *          or -1 if no chunk is due
+     */
+    public int sealChunkIfDue(String inBucket, String inputKey, boolean isLast) {
+        Map<String, Object> progress = fileProgress.get(inputKey);
+        int chunkLines = (Integer) progress.get(Constants.CHUNK_LINES);
+        long sinceLastChunk = System.currentTimeMillis() - (Long) progress.get(Constants.LAST_CHUNK_TIME);
+        boolean isDue = isLast || (chunkLines > 0 && (chunkLines >= Constants.REVIEWS_PER_CHUNK
+                || sinceLastChunk >= Constants.CHUNK_INTERVAL_MILLIS));
 
+        // after the last chunk was sealed nothing else is published for this file
+        if (!isDue || (Boolean) progress.get(Constants.IS_LAST_CHUNK)) {
+            return -1;
+        }
+
+        int chunkIndex = (Integer) progress.get(Constants.CHUNK_INDEX);
+        File chunkFile = new File(getLocalChunkFileName(inBucket, inputKey));
+        File sealedFile = new File(getLocalChunkFileName(inBucket, inputKey, chunkIndex));
+        try {
+            boolean isSealed = chunkFile.isFile() ? chunkFile.renameTo(sealedFile) : sealedFile.createNewFile();
+            if (!isSealed) {
+                return -1;
+            }
         }
-        finally {
-            getLockForInputKey(inputKey).unlock();
-            return isUpdated;
+        catch (IOException e) {
+            System.err.println(e);
+            return -1;
         }
+
+        progress.put(Constants.CHUNK_INDEX, chunkIndex + 1);
+        progress.put(Constants.CHUNK_LINES, 0);
+        progress.put(Constants.LAST_CHUNK_TIME, System.currentTimeMillis());
+        progress.put(Constants.IS_LAST_CHUNK, isLast);
+        return chunkIndex;
     }
 
+    /**
+     * Restores a file of a client recovered from the manager journal (see ManagerJournal).
+     * The completed reviews are the first completedBeforeSnapshot results of the local output file, and the results
+     * of the reviews completed since the snapshot (see ManagerJournal). Results that were written locally but not
+     * journaled are dropped from the local files (they will be received again), the analytics are rebuilt from the
+     * rest, and chunks that were sealed but not published are kept pending.
+     * params: inBucket, inputKey, file - the journaled state of the file
+     */
+    public void restoreFile(String inBucket, String inputKey, ManagerJournal.FileState file) {
+        putOutputKey(inputKey, file.outKey, file.totalFileReviews);
+        Map<String, Object> progress = fileProgress.get(inputKey);
+        Set<String> completedReviews = new HashSet<>();
 
-    public long decOutputCounter(String inputKey) {
-        if(getLockForInputKey(inputKey).isHeldByCurrentThread()){
-            System.out.println("Entering decOutputCounter with lock");
-            getLockForInputKey(inputKey).unlock();
+        int completedCount = restoreLocalFile(getLocalFileName(inBucket, inputKey), file.completedBeforeSnapshot,
+                file.completedReviews, completedReviews, getAnalytics(inputKey));
+        progress.put(Constants.COUNTER, file.totalFileReviews - completedCount);
+        getCompletedReviews(inputKey).addAll(completedReviews);
+
+        List<Integer> pendingChunks = new LinkedList<>();
+        int chunkIndex = file.lastChunkIndex + 1;
+        while (new File(getLocalChunkFileName(inBucket, inputKey, chunkIndex)).isFile()) {
+            restoreLocalFile(getLocalChunkFileName(inBucket, inputKey, chunkIndex), 0, completedReviews,
+                    new HashSet<>(), null);
+            pendingChunks.add(chunkIndex);
+            chunkIndex++;
         }
-        long newCounter = -1; //default non zero value
-        getLockForInputKey(inputKey).lock();
+        int chunkLines = restoreLocalFile(getLocalChunkFileName(inBucket, inputKey), 0, completedReviews,
+                new HashSet<>(), null);
 
-        try {
-        newCounter = (Long) in2outMap.get(inputKey).get(Constants.COUNTER) -1;
-        in2outMap.get(inputKey).put(Constants.COUNTER, newCounter);
+        progress.put(Constants.CHUNK_INDEX, chunkIndex);
+        progress.put(Constants.CHUNK_LINES, chunkLines);
+        progress.put(Constants.IS_LAST_CHUNK, file.isLastChunkPublished);
+        progress.put(Constants.PENDING_CHUNKS, pendingChunks);
+    }
+
+    /**
+     * Keeps in a local file only the first result of every completed review.
+     * params: localFileName, completedLines - the first completedLines results are of completed reviews,
+     *         completedReviews - the rest of the completed reviews, kept - filled with the reviews of the kept results,
+     *         analytics - if not null, the kept results are added to it
+     * returns: the number of results kept
+     */
+    private int restoreLocalFile(String localFileName, long completedLines, Set<String> completedReviews,
+                                 Set<String> kept, FileAnalytics analytics) {
+        File localFile = new File(localFileName);
+        if (!localFile.isFile()) {
+            return 0;
         }
-        finally {
-            getLockForInputKey(inputKey).unlock();
-            return newCounter ;
+
+        List<String> keptLines = new LinkedList<>();
+        JSONParser parser = new JSONParser();
+        try (BufferedReader reader = new BufferedReader(new FileReader(localFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject obj = (JSONObject) parser.parse(line);
+                String reviewId = (String) obj.get(Constants.REVIEW_ID);
+                boolean isCompleted = keptLines.size() < completedLines || completedReviews.contains(reviewId);
+                if (!isCompleted || (reviewId != null && !kept.add(reviewId)))
+                    continue;
+                keptLines.add(line);
+                if (analytics != null)
+                    analytics.addResult(((Long) obj.get(Constants.SENTIMENT)).intValue(),
+                            (Boolean) obj.get(Constants.IS_SARCASTIC),
+                            ((Long) obj.get(Constants.RATING)).intValue(),
+                            (String) obj.get(Constants.ENTITIES));
+            }
+        } catch (IOException | ParseException e) {
+            // a torn last line (crash in the middle of a write) - the lines before it were read
+            System.err.println(e);
         }
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(localFile, false)))) {
+            for (String line : keptLines) {
+                out.println(line);
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        return keptLines.size();
+    }
+
+    public void setOutputFilesLeft(int outputFilesLeft) {
+        this.outputFilesLeft.set(outputFilesLeft);
+    }
+
+    public int getOutputFilesLeft() {
+        return outputFilesLeft.get();
     }
 
     public int decOutputFilesLeft() {
@@ -132,13 +308,93 @@ public class ClientInfo {
         return reviewsPerWorker;
     }
 
+    /**
+     * params: announcedReviews - the estimated reviews of all the files,
+     *         announcedWorkers - the bound of the workers fleet the announcement asked for
+     */
+    public synchronized void announce(long announcedReviews, int announcedWorkers) {
+        this.announcedReviews = announcedReviews;
+        this.announcedWorkers = announcedWorkers;
+        this.announceTime = System.currentTimeMillis();
+    }
+
+    public int getAnnouncedWorkers() {
+        return announcedWorkers;
+    }
+
+    /**
+     * A file of the client arrived: from now on the client is served until all of its files are done.
+     * returns: false if the announcement of the client expired (see expireAnnouncement), then this ClientInfo was
+     *          dropped and the file belongs to a new one
+     */
+    public synchronized boolean fileArrived() {
+        hasFiles = true;
+        return !isExpired;
+    }
+
+    /**
+     * returns: true if the client only announced its files and didn't send any of them yet
+     */
+    public synchronized boolean isAnnouncedOnly() {
+        return !hasFiles;
+    }
+
+    /**
+     * Expires the announcement of a client that didn't send any of its files within ANNOUNCEMENT_TIMEOUT_MILLIS
+     * (it crashed, or never uploaded them).
+     * returns: true if it expired, then the ClientInfo should be dropped
+     */
+    public synchronized boolean expireAnnouncement() {
+        if (hasFiles || isExpired
+                || System.currentTimeMillis() - announceTime < Constants.ANNOUNCEMENT_TIMEOUT_MILLIS) {
+            return false;
+        }
+        isExpired = true;
+        return true;
+    }
+
+    /**
+     * returns: true if none of the clients has files to serve (each of them, if any, only announced its files)
+     */
+    public static boolean areAllServed(Map<String, ClientInfo> clientsInfo) {
+        for (ClientInfo clientInfo : clientsInfo.values()) {
+            if (!clientInfo.isAnnouncedOnly()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * returns: the estimated number of reviews the client announced, that are not in a registered file yet
+     *          (0 once all of its files were registered)
+     */
+    public long getPendingAnnouncedReviews() {
+        if (announcedReviews == 0 || registeredFiles.get() >= numFiles) {
+            return 0;
+        }
+        return Math.max(announcedReviews - registeredReviews.get(), 0);
+    }
+
     public void putOutputKey(String inputKey, String outputKey, long counter) {
-        Map outputDict = new HashMap<>();
+        // the progress is put first, a file is registered once it is in in2outMap
+        Map<String, Object> progress = new HashMap<>();
+        progress.put(Constants.COUNTER, counter);
+        progress.put(Constants.CHUNK_INDEX, 0);
+        progress.put(Constants.CHUNK_LINES, 0);
+        progress.put(Constants.LAST_CHUNK_TIME, System.currentTimeMillis());
+        progress.put(Constants.IS_LAST_CHUNK, false);
+        progress.put(Constants.ANALYTICS, new FileAnalytics());
+        progress.put(Constants.PENDING_CHUNKS, new LinkedList<Integer>());
+        fileProgress.put(inputKey, progress);
+
+        Map<String, Object> outputDict = new HashMap<>();
         outputDict.put(Constants.OUT_KEY, outputKey);
-        outputDict.put(Constants.COUNTER, counter);
         outputDict.put(Constants.TOTAL_FILE_REVIEWS, counter);
-        outputDict.put(Constants.LOCK, new ReentrantLock());
-        in2outMap.put(inputKey, outputDict);
+        outputDict.put(Constants.COMPLETED_REVIEWS, ConcurrentHashMap.newKeySet());
+        in2outMap.put(inputKey, Collections.unmodifiableMap(outputDict));
+        registeredReviews.addAndGet(counter);
+        registeredFiles.incrementAndGet();
     }
 
     @Override
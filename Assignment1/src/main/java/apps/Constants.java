@@ -28,20 +28,100 @@ public class Constants {
     public static final String SENTIMENT= "sentiment";
     public static final String ENTITIES= "entities";
     public static final String IS_SARCASTIC= "isSarcastic";
+    public static final String IS_APPROXIMATE = "isApproximate";
     public static final String RATING= "rating";
     public static final String BUCKET= "bucket";
     public static final String REVIEWS_PER_WORKER= "reviewsPerWorker";
+    public static final String ENGINE = "engine";
+    public static final String PROFILE = "profile";
     public static final String NUM_FILES= "numFiles";
     public static final String IS_DONE = "isDone";
     public static final String OUT_KEY = "outKey";
     public static final String COUNTER = "counter";
-    public static final String LOCK = "lock";
     public static final String TOTAL_FILE_REVIEWS = "totalFileReviews";
+    public static final String CHUNK_KEY = "chunkKey";
+    public static final String CHUNK_INDEX = "chunkIndex";
+    public static final String CHUNK_LINES = "chunkLines";
+    public static final String IS_LAST_CHUNK = "isLastChunk";
+    public static final String LAST_CHUNK_TIME = "lastChunkTime";
+    public static final String ANALYTICS = "analytics";
+    public static final String SARCASM_RATIO = "sarcasmRatio";
+    public static final String SENTIMENT_HISTOGRAM = "sentimentHistogram";
+    public static final String RATING_SENTIMENT_MATRIX = "ratingSentimentMatrix";
+    public static final String TOP_ENTITIES = "topEntities";
+    public static final String SUMMARY_SUFFIX = "_summary";
+    public static final String ID = "id";
+    public static final String REVIEW_ID = "reviewId";
+    public static final String RECORD_TYPE = "recordType";
+    public static final String IS_DISPATCHED = "isDispatched";
+    public static final String IS_UPLOADED = "isUploaded";
+    public static final String COMPLETED_REVIEWS = "completedReviews";
+    public static final String COMPLETED_COUNT = "completedCount";
+    public static final String GENERATION = "generation";
+    public static final String PENDING_CHUNKS = "pendingChunks";
+    public static final String FILES = "files";
+    public static final String CLIENTS = "clients";
+    public static final String FINISHED_CLIENTS = "finishedClients";
+    public static final String ACKNOWLEDGED_CLIENTS = "acknowledgedClients";
+    public static final String WORKER_ID = "workerId";
+    public static final String INSTANCE_TYPE = "instanceType";
+    public static final String TOTAL_BYTES = "totalBytes";
+    public static final String ESTIMATED_REVIEWS = "estimatedReviews";
+    public static final String MAX_FILE_REVIEWS = "maxFileReviews";
+    public static final String PROCESSED_REVIEWS = "processedReviews";
+    public static final String BUSY_MILLIS = "busyMillis";
+    public static final String CACHE_HITS = "cacheHits";
+    public static final String STARTUP_MILLIS = "startupMillis";
+    public static final String STARTUP_PHASES = "startupPhases";
+    public static final String MODEL_LOAD_MILLIS = "modelLoadMillis";
+    public static final String TERMINATE = "terminate";
+
+    // manager write-ahead journal (see ManagerJournal)
+    public static final String JOURNAL_PATH = "ManagerJournal";
+    public static final String SNAPSHOT_PATH = "ManagerSnapshot";
+
+    // partial results - a chunk is published every REVIEWS_PER_CHUNK reviews or every CHUNK_INTERVAL_MILLIS
+    public static final int REVIEWS_PER_CHUNK = 50;
+    public static final long CHUNK_INTERVAL_MILLIS = 5000;
+    // a client that announced its files and didn't send any of them within this time is dropped (see ClientInfo)
+    public static final long ANNOUNCEMENT_TIMEOUT_MILLIS = 10 * 60 * 1000;
 
     public static final String CLIENTS_TO_MANAGER_QUEUE= "Clients2ManagerQueue";
     public static final String MANAGER_TO_CLIENTS_QUEUE= "Manager2ClientsQueue";
     public static final String WORKERS_TO_MANAGER_QUEUE = "Workers2ManagerQueue";
     public static final String MANAGER_TO_WORKERS_QUEUE = "Manager2WorkersQueue";
+    // every worker has its own control queue, the manager sends it the messages meant for it alone (a drain)
+    public static final String WORKER_CONTROL_QUEUE_PREFIX = "Manager2WorkerControl_";
+
+    // throughput reports - a worker reports its speed every REPORT_EVERY_REVIEWS reviews (see ThroughputTable)
+    public static final int REPORT_EVERY_REVIEWS = 20;
+
+    // analysis threads of a worker, 0 = one per core (see MainWorkerClass)
+    public static int WORKER_THREADS = 0;
+    // threads CoreNLP annotates the batch of an analysis thread with, 0 = the cores left to every analysis thread
+    // (one per analysis thread when there is one per core - see MainWorkerClass)
+    public static int ANNOTATION_THREADS = 0;
+    // parse and find the sentiment of the longest sentence of a review only (see SentimentAnalysisHandler)
+    public static boolean LONGEST_SENTENCE_ONLY = true;
+    // the bounds of the parse in that mode - a longer sentence is cut, a slower parse is done on a shorter prefix
+    public static int MAX_SENTENCE_TOKENS = 80;
+    public static long REVIEW_TIME_BUDGET_MILLIS = 2000;
+    // results of the recent reviews a worker keeps, by their text (see ResultCache), 0 = no cache
+    public static int RESULT_CACHE_SIZE = 10000;
+    // reviews an analysis thread takes from the worker's queue and annotates together (see ReviewAnalyzer)
+    public static int ANALYSIS_BATCH_SIZE = 4;
+    // a received message is hidden from the other receivers for this time, a worker extends it by this time for
+    // every review of the batch it starts (see ReviewAnalyzer)
+    public static final int VISIBILITY_TIMEOUT_SECONDS = 20;
+    // a review whose profile is still loading on the worker that received it is received again after this time (by
+    // any worker - see WorkerEngines)
+    public static final int MODELS_LOADING_RETRY_SECONDS = 10;
+
+    // pre-announce - the client estimates the number of reviews in its files by their size (see Client2Manager_announce)
+    public static final int AVG_REVIEW_BYTES = 700;
+
+    public static final String MANAGER_INSTANCE_TYPE = "t2.small";
+    public static final String DEFAULT_WORKER_INSTANCE_TYPE = "t2.large";
 
     public static final String USER_DATA_PATH = "user_data.sh";
     public static final String KEY_PAIR = "YuvalKeyPair";
@@ -57,8 +137,16 @@ public class Constants {
     }
 
     public enum TAGS {
-        CLIENT_2_MANAGER, CLIENT_2_MANAGER_terminate, MANAGER_2_CLIENT,
-        MANAGER_2_WORKER, WORKER_2_MANAGER, SUMMERY_LINE
+        CLIENT_2_MANAGER, CLIENT_2_MANAGER_terminate, CLIENT_2_MANAGER_ack, CLIENT_2_MANAGER_announce, MANAGER_2_CLIENT,
+        MANAGER_2_WORKER, MANAGER_2_WORKER_drain, WORKER_2_MANAGER, WORKER_2_MANAGER_drained,
+        WORKER_2_MANAGER_report, WORKER_2_MANAGER_ready, SUMMERY_LINE
+    }
+
+    /**
+     * returns: the name of the control queue of the given worker
+     */
+    public static String workerControlQueue(String workerId) {
+        return WORKER_CONTROL_QUEUE_PREFIX + workerId;
     }
 
     public static final String[] HTML_COLORS = new String[]{"#990000", "#e60000", "#000000", "#8cff1a", "#4d9900"};
@@ -93,6 +181,9 @@ public class Constants {
     //********************************* DEBUG ***************************************
     public static boolean isMiniRun = false;
     public static boolean DEBUG_MODE = false;
+    // run the workers as local processes (see LocalProcessProvider) instead of EC2 instances / threads
+    public static boolean LOCAL_WORKERS = false;
+    public static final String LOCAL_WORKER_ARG = "local";
     public static AtomicBoolean IS_MANAGER_ON;
     public static void printDEBUG(String toPrint){
             System.out.println(toPrint);
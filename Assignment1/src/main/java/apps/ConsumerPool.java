@@ -0,0 +1,226 @@
+package apps;
+
+import com.amazonaws.services.sqs.model.Message;
+import handlers.SQSHandler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A pool of consumers of a single SQS queue, sized from the measured queue depth and consumers utilization.
+ * Every SIZING_INTERVAL_SECONDS the pool samples the queue depth and the fraction of time its consumers spent
+ * handling messages (rather than waiting on empty polls), and adds or retires consumers accordingly.
+ * Consumers that only hand their messages over to a downstream pipeline (see ResultsPipeline) are busy for no time,
+ * so their utilization says nothing: such a pool is sized on the queue depth only, and doesn't grow while the
+ * pipeline is back-pressured.
+ * A retired consumer finishes the batch it is handling and exits - consumers are never interrupted.
+ * A consumer whose receive fails (SQS is throttling or unreachable) waits before it tries again, the wait doubles
+ * with every failure in a row, from MIN_BACKOFF_MILLIS up to MAX_BACKOFF_MILLIS.
+ */
+public class ConsumerPool {
+
+    private static final int SIZING_INTERVAL_SECONDS = 10;
+    private static final double HIGH_UTILIZATION = 0.8;
+    private static final double LOW_UTILIZATION = 0.3;
+    private static final int BACKLOG_PER_CONSUMER = 10;    // messages waiting per consumer before adding consumers
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+    private static final int MAX_LOGGED_DECISIONS = 100;   // the last sizing decisions kept for the statistics
+
+    private String name;
+    private String queueURL;
+    private SQSHandler sqs;
+    private Supplier<QueueConsumer> consumerFactory;
+    private BooleanSupplier isDone;
+    private BooleanSupplier isBackPressured;        // null if the consumers handle the messages themselves
+    private int minConsumers;
+    private int maxConsumers;
+
+    private ExecutorService consumersExecutor;
+    private ScheduledExecutorService sizer;
+    private AtomicInteger activeConsumers;
+    private AtomicInteger retireRequests;
+    private AtomicLong busyNanos;
+    private long lastSizingNanos;
+
+    // metrics of the sizing decisions
+    private int sizingDecisions;
+    private Deque<String> recentDecisions;
+
+    /**
+     * params: name - for threads and metrics, queueURL - the consumed queue, consumerFactory - creates a consumer,
+     *         isDone - when true, consumers exit, minConsumers, maxConsumers
+     */
+    public ConsumerPool(String name, String queueURL, SQSHandler sqs, Supplier<QueueConsumer> consumerFactory,
+                        BooleanSupplier isDone, int minConsumers, int maxConsumers) {
+        this(name, queueURL, sqs, consumerFactory, isDone, null, minConsumers, maxConsumers);
+    }
+
+    /**
+     * A pool of consumers that hand their messages over to a downstream pipeline.
+     * params: isBackPressured - true while the pipeline can't take more messages (the pool doesn't grow)
+     */
+    public ConsumerPool(String name, String queueURL, SQSHandler sqs, Supplier<QueueConsumer> consumerFactory,
+                        BooleanSupplier isDone, BooleanSupplier isBackPressured, int minConsumers, int maxConsumers) {
+        this.name = name;
+        this.isBackPressured = isBackPressured;
+        this.queueURL = queueURL;
+        this.sqs = sqs;
+        this.consumerFactory = consumerFactory;
+        this.isDone = isDone;
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+
+        AtomicInteger threadsCounter = new AtomicInteger(0);
+        this.consumersExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName(name + "-Thread-" + threadsCounter.incrementAndGet());
+            return thread;
+        });
+        this.sizer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName(name + "-Sizer-Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.activeConsumers = new AtomicInteger(0);
+        this.retireRequests = new AtomicInteger(0);
+        this.busyNanos = new AtomicLong(0);
+        this.sizingDecisions = 0;
+        this.recentDecisions = new ArrayDeque<>();
+    }
+
+    /** Starts initialConsumers consumers and the periodic sizing */
+    public void start(int initialConsumers) {
+        lastSizingNanos = System.nanoTime();
+        for (int i = 0; i < initialConsumers; i++) {
+            addConsumer();
+        }
+        sizer.scheduleAtFixedRate(this::resize, SIZING_INTERVAL_SECONDS, SIZING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void addConsumer() {
+        activeConsumers.incrementAndGet();
+        consumersExecutor.execute(() -> runConsumer(consumerFactory.get()));
+    }
+
+    private void runConsumer(QueueConsumer consumer) {
+        Constants.printDEBUG(name + ": consumer started");
+        long backoffMillis = 0;
+        try {
+            while (!isDone.getAsBoolean() && !shouldRetire()) {
+                List<Message> messages;
+                try {
+                    messages = consumer.receive();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    backoffMillis = Math.min(Math.max(backoffMillis * 2, MIN_BACKOFF_MILLIS), MAX_BACKOFF_MILLIS);
+                    Constants.printDEBUG(name + ": receive failed, trying again in " + backoffMillis + "ms");
+                    try {
+                        Thread.sleep(backoffMillis);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                backoffMillis = 0;
+
+                long handleStart = System.nanoTime();
+                consumer.handle(messages);
+                busyNanos.addAndGet(System.nanoTime() - handleStart);
+            }
+        }
+        finally {
+            Constants.printDEBUG(name + ": consumer left safely, done is: " + isDone.getAsBoolean());
+            synchronized (this) {
+                activeConsumers.decrementAndGet();
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean shouldRetire() {
+        return retireRequests.getAndUpdate(requests -> requests > 0 ? requests - 1 : 0) > 0;
+    }
+
+    /** Samples the queue depth and the consumers utilization and adds or retires consumers */
+    private void resize() {
+        try {
+            if (isDone.getAsBoolean()) {
+                return;
+            }
+            long now = System.nanoTime();
+            int consumers = activeConsumers.get() - retireRequests.get();
+            double utilization = (double) busyNanos.getAndSet(0) / (Math.max(consumers, 1) * (now - lastSizingNanos));
+            lastSizingNanos = now;
+            int queueDepth = sqs.getQueueDepth(queueURL);
+
+            int target = consumers;
+            String reason = "steady";
+            boolean isHandOver = isBackPressured != null;
+            if (isHandOver && isBackPressured.getAsBoolean()) {
+                reason = "back-pressure";
+            }
+            else if (queueDepth > BACKLOG_PER_CONSUMER * consumers || (!isHandOver && utilization > HIGH_UTILIZATION)) {
+                target = consumers + Math.max(1, queueDepth / BACKLOG_PER_CONSUMER - consumers);
+                reason = "backlog";
+            }
+            else if (queueDepth == 0 && (isHandOver || utilization < LOW_UTILIZATION)) {
+                target = consumers - 1;
+                reason = "idle";
+            }
+            target = Math.max(minConsumers, Math.min(maxConsumers, target));
+
+            for (int i = consumers; i < target; i++) {
+                addConsumer();
+            }
+            if (target < consumers) {
+                retireRequests.addAndGet(consumers - target);
+            }
+            recordDecision(queueDepth, utilization, consumers, target, reason);
+        }
+        catch (Exception e) {
+            // never let an exception cancel the periodic sizing
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void recordDecision(int queueDepth, double utilization, int consumers, int target, String reason) {
+        sizingDecisions++;
+        String decision = String.format("METRICS %s: queueDepth=%d utilization=%.2f consumers=%d->%d reason=%s",
+                name, queueDepth, utilization, consumers, target, reason);
+        if (recentDecisions.size() == MAX_LOGGED_DECISIONS) {
+            recentDecisions.poll();
+        }
+        recentDecisions.add(decision);
+        Constants.printDEBUG(decision);
+    }
+
+    /** Waits until all the consumers exited (isDone became true) and stops the pool */
+    public void awaitDone() throws InterruptedException {
+        synchronized (this) {
+            while (activeConsumers.get() > 0) {
+                wait();
+            }
+        }
+        sizer.shutdownNow();
+        consumersExecutor.shutdown();
+    }
+
+    /** returns: the number of sizing decisions of this pool, and the last MAX_LOGGED_DECISIONS of them, one per line */
+    public synchronized String getMetrics() {
+        StringBuilder metrics = new StringBuilder(name + ": " + sizingDecisions + " sizing decisions, the last "
+                + recentDecisions.size() + ":\n");
+        for (String decision : recentDecisions) {
+            metrics.append(decision).append("\n");
+        }
+        return metrics.toString();
+    }
+}
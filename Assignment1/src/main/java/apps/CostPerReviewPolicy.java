@@ -0,0 +1,75 @@
+package apps;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Launches the instance type with the lowest cost per review: hourly price / (measured reviews per second * 3600).
+ * Every candidate type that wasn't measured yet is tried once (a single worker), so its speed gets measured. Until
+ * any type is measured, the default type is launched.
+ */
+public class CostPerReviewPolicy implements InstanceTypePolicy {
+
+    private Map<String, Double> hourlyPrices;      // <instance type, on-demand USD per hour>
+    private String defaultType;
+    private Set<String> triedTypes;
+
+    /**
+     * params: hourlyPrices - the candidate instance types and their price, defaultType - one of the candidates
+     */
+    public CostPerReviewPolicy(Map<String, Double> hourlyPrices, String defaultType) {
+        this.hourlyPrices = new LinkedHashMap<>(hourlyPrices);
+        this.defaultType = defaultType;
+        this.triedTypes = new HashSet<>();
+        this.triedTypes.add(defaultType);
+    }
+
+    /**
+     * returns: the policy with the worker candidates of us-east-1 (on-demand linux prices)
+     */
+    public static CostPerReviewPolicy withDefaultPrices() {
+        Map<String, Double> prices = new LinkedHashMap<>();
+        prices.put("t2.large", 0.0928);
+        prices.put("c5.large", 0.085);
+        prices.put("c5.xlarge", 0.17);
+        prices.put("m5.large", 0.096);
+        return new CostPerReviewPolicy(prices, Constants.DEFAULT_WORKER_INSTANCE_TYPE);
+    }
+
+    /**
+     * returns: USD per review for the given type, or Double.MAX_VALUE if it wasn't measured
+     */
+    public double getCostPerReview(String instanceType, ThroughputTable throughput) {
+        double reviewsPerSecond = throughput.getReviewsPerSecond(instanceType);
+        if (reviewsPerSecond == 0) {
+            return Double.MAX_VALUE;
+        }
+        return hourlyPrices.get(instanceType) / (reviewsPerSecond * 3600);
+    }
+
+    @Override
+    public synchronized String chooseType(ThroughputTable throughput) {
+        // nothing is measured yet, start with the default type
+        if (throughput.getMeasuredTypes().isEmpty()) {
+            return defaultType;
+        }
+
+        // measure the types that weren't tried yet, one worker each
+        for (String instanceType : hourlyPrices.keySet()) {
+            if (triedTypes.add(instanceType)) {
+                Constants.printDEBUG("DEBUG INSTANCE TYPE: trying " + instanceType);
+                return instanceType;
+            }
+        }
+
+        String cheapest = defaultType;
+        for (String instanceType : hourlyPrices.keySet()) {
+            if (getCostPerReview(instanceType, throughput) < getCostPerReview(cheapest, throughput)) {
+                cheapest = instanceType;
+            }
+        }
+        return cheapest;
+    }
+}
@@ -0,0 +1,104 @@
+package apps;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming aggregates of the results of one input file, updated as Worker2Manager results arrive:
+ * sentiment histogram, sarcasm ratio, top-K entities by type and a rating/sentiment confusion matrix.
+ * Uploaded next to the output file, so a job can be summarized without reading the full result.
+ * Like the rest of the per-file state, it is updated only by the result shard that owns the file.
+ */
+public class FileAnalytics {
+
+    private static final int NUM_SENTIMENTS = 5;   // 0 = very negative ... 4 = very positive
+    private static final int NUM_RATINGS = 5;      // 1 ... 5 stars
+    private static final int TOP_K = 10;
+    private static final int SKETCH_CAPACITY = 100;
+    private static final String NO_ENTITY = "O";
+
+    private long reviews;
+    private long sarcastic;
+    private long[] sentimentHistogram;
+    private long[][] ratingSentimentMatrix;
+    private Map<String, HeavyHitters> entitiesByType;
+
+    public FileAnalytics() {
+        this.reviews = 0;
+        this.sarcastic = 0;
+        this.sentimentHistogram = new long[NUM_SENTIMENTS];
+        this.ratingSentimentMatrix = new long[NUM_RATINGS][NUM_SENTIMENTS];
+        this.entitiesByType = new HashMap<>();
+    }
+
+    /**
+     * Add a single review result.
+     * params: sentiment, isSarcastic, rating, entities - as sent by the worker ("[word:TYPE, word:TYPE, ...]")
+     */
+    public void addResult(int sentiment, boolean isSarcastic, int rating, String entities) {
+        reviews++;
+        if (isSarcastic)
+            sarcastic++;
+        if (sentiment >= 0 && sentiment < NUM_SENTIMENTS) {
+            sentimentHistogram[sentiment]++;
+            if (rating >= 1 && rating <= NUM_RATINGS)
+                ratingSentimentMatrix[rating - 1][sentiment]++;
+        }
+        addEntities(entities);
+    }
+
+    private void addEntities(String entities) {
+        if (entities == null || entities.length() < 2)
+            return;
+        for (String entity : entities.substring(1, entities.length() - 1).split(", ")) {
+            int separator = entity.lastIndexOf(':');
+            if (separator <= 0)
+                continue;
+            String type = entity.substring(separator + 1);
+            if (type.equals(NO_ENTITY))
+                continue;
+            HeavyHitters sketch = entitiesByType.get(type);
+            if (sketch == null) {
+                sketch = new HeavyHitters(SKETCH_CAPACITY);
+                entitiesByType.put(type, sketch);
+            }
+            sketch.add(entity.substring(0, separator));
+        }
+    }
+
+    /** Turns the aggregates to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.REVIEWS, reviews);
+        obj.put(Constants.SARCASM_RATIO, reviews == 0 ? 0.0 : (double) sarcastic / reviews);
+
+        JSONArray histogram = new JSONArray();
+        for (long count : sentimentHistogram)
+            histogram.add(count);
+        obj.put(Constants.SENTIMENT_HISTOGRAM, histogram);
+
+        JSONArray matrix = new JSONArray();
+        for (long[] ratingRow : ratingSentimentMatrix) {
+            JSONArray row = new JSONArray();
+            for (long count : ratingRow)
+                row.add(count);
+            matrix.add(row);
+        }
+        obj.put(Constants.RATING_SENTIMENT_MATRIX, matrix);
+
+        JSONObject topEntities = new JSONObject();
+        for (Map.Entry<String, HeavyHitters> entry : entitiesByType.entrySet()) {
+            JSONObject top = new JSONObject();
+            List<Map.Entry<String, Long>> topItems = entry.getValue().top(TOP_K);
+            for (Map.Entry<String, Long> item : topItems)
+                top.put(item.getKey(), item.getValue());
+            topEntities.put(entry.getKey(), top);
+        }
+        obj.put(Constants.TOP_ENTITIES, topEntities);
+        return obj.toJSONString();
+    }
+}
@@ -0,0 +1,64 @@
+package apps;
+
+import java.util.*;
+
+/**
+ * Bounded heavy-hitter sketch (Space-Saving algorithm).
+ * Keeps at most `capacity` counters, so memory doesn't grow with the number of distinct items.
+ * Every item that appears more than (total / capacity) times is guaranteed to be monitored,
+ * and each reported count over-estimates the real count by at most its error.
+ */
+public class HeavyHitters {
+
+    private int capacity;
+    private long total;
+    // item -> {count, error}
+    private Map<String, long[]> counters;
+
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        this.total = 0;
+        this.counters = new HashMap<>();
+    }
+
+    public void add(String item) {
+        total++;
+        long[] counter = counters.get(item);
+        if (counter != null) {
+            counter[0]++;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(item, new long[]{1, 0});
+            return;
+        }
+
+        // replace the item with the minimal count, the new item inherits its count as error
+        String minItem = null;
+        long minCount = Long.MAX_VALUE;
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            if (entry.getValue()[0] < minCount) {
+                minCount = entry.getValue()[0];
+                minItem = entry.getKey();
+            }
+        }
+        counters.remove(minItem);
+        counters.put(item, new long[]{minCount + 1, minCount});
+    }
+
+    /**
+     * returns: the k items with the highest (estimated) counts, ordered by count
+     */
+    public List<Map.Entry<String, Long>> top(int k) {
+        List<Map.Entry<String, Long>> items = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            items.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue()[0]));
+        }
+        items.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return items.subList(0, Math.min(k, items.size()));
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
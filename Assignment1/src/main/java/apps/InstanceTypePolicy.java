@@ -0,0 +1,14 @@
+package apps;
+
+/**
+ * Chooses the instance type of a new worker (see WarmPool.acquire).
+ */
+public interface InstanceTypePolicy {
+
+    /**
+     * Called once for every worker that is about to be launched.
+     * params: throughput - the measured speed of the instance types so far
+     * returns: the instance type to launch
+     */
+    String chooseType(ThroughputTable throughput);
+}
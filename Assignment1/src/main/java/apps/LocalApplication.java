@@ -1,13 +1,17 @@
 package apps;
 
 import messages.Client2Manager;
+import messages.Client2Manager_ack;
+import messages.Client2Manager_announce;
 import messages.Client2Manager_terminate;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.sqs.model.Message;
 import handlers.EC2Handler;
+import handlers.QualityProfile;
 import handlers.S3Handler;
 import handlers.SQSHandler;
+import handlers.SentimentEngine;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -15,9 +19,8 @@ import org.json.simple.parser.ParseException;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.UUID;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
 
 
 /** From the assignment description:
@@ -25,7 +28,7 @@ import java.util.UUID;
  * 2. Uploads the file to S3.
  * 3. Sends a message to an SQS queue, stating the location of the file on S3
  * 4. Checks an SQS queue for a message indicating the process is done and the response (the summary file) is available on S3.
- * 5. Downloads the summary file from S3, and create an html file representing the results.
+ * 5. Downloads the summary file from S3 in chunks, as they are ready, and renders them into an html file representing the results.
  * 6. Sends a termination message to the apps.Manager if it was supplied as one of its input arguments.
  */
 
@@ -49,16 +52,47 @@ public class LocalApplication {
     }
 
     /**
-     * Create an html file representing the results from the summery.
-     * params: appID, numOutput, summery
+     * Announces the files of this application to the Manager before they are uploaded, with the number of reviews
+     * estimated by their size, so the Manager can launch workers during the upload.
+     * params: sqs, C2M_QueueURL, bucket, fileNames, reviewsPerWorker
      */
-    public static void createHtml(UUID appID, String htmlName, InputStream summery) throws IOException, ParseException {
+    public static void announceFiles(SQSHandler sqs, String C2M_QueueURL, String bucket, String[] fileNames,
+                                     int reviewsPerWorker) {
+        long totalBytes = 0;
+        long maxFileBytes = 0;
+        for (String fileName : fileNames) {
+            long fileBytes = new File(fileName).length();
+            totalBytes += fileBytes;
+            maxFileBytes = Math.max(maxFileBytes, fileBytes);
+        }
+        Client2Manager_announce announce = new Client2Manager_announce(bucket, reviewsPerWorker, fileNames.length,
+                totalBytes, totalBytes / Constants.AVG_REVIEW_BYTES, maxFileBytes / Constants.AVG_REVIEW_BYTES);
+        sqs.sendMessage(C2M_QueueURL, announce.stringifyUsingJSON());
+        Constants.printDEBUG("DEBUG APP: announced " + announce);
+    }
+
+    private static String getHtmlFileName(String htmlName) {
+        return htmlName.endsWith(".html")? htmlName : htmlName + ".html";
+    }
+
+    /**
+     * Create an html file with the page header only, the results are appended to it as they arrive.
+     * params: htmlName
+     */
+    public static void startHtml(String htmlName) throws IOException {
+        String header = "<!DOCTYPE html>\n<html>\n<head>\n<title>Page Title</title>\n</head>\n<body>\n<h1>Amazon Reviews - Sarcasm Detector</h1><ul>";
+        Files.write(Paths.get(getHtmlFileName(htmlName)), header.getBytes());
+    }
+
+    /**
+     * Append the results from (a part of) the summery to an html file created by startHtml.
+     * params: htmlName, summery
+     */
+    public static void appendHtml(String htmlName, InputStream summery) throws IOException, ParseException {
 
         // create the string
         StringBuilder html = new StringBuilder();
 
-        html.append("<!DOCTYPE html>\n<html>\n<head>\n<title>Page Title</title>\n</head>\n<body>\n<h1>Amazon Reviews - Sarcasm Detector</h1><ul>");
-
         // go through the summery output file line by line
         BufferedReader reader = new BufferedReader(new InputStreamReader(summery));
         JSONParser parser = new JSONParser();
@@ -80,23 +114,56 @@ public class LocalApplication {
                 isSarcastic = "";
             else
                 isSarcastic = "not";
+            // a sentiment that was estimated within the cost bounds of the worker (missing in older results)
+            String approximate = Boolean.TRUE.equals(obj.get(Constants.IS_APPROXIMATE)) ? " (approximate)" : "";
 
             String li =
                     "<li>\n" +
-                            "    <span style=\"color: "+ Constants.HTML_COLORS[(int)sentiment] +"\"> "+ review +"</span>\n" +
+                            "    <span style=\"color: "+ Constants.HTML_COLORS[(int)sentiment] +"\"> "+ review +"</span>"+ approximate +"\n" +
                             "    "+ entityList +"\n" +
                             "    - This is "+ isSarcastic +" a sarcastic review.\n" +
                     "</li><br>";
             html.append(li);
         }
 
-        html.append("</ul>\n</body>\n</html>");
+        Files.write(Paths.get(getHtmlFileName(htmlName)), html.toString().getBytes(), StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Close an html file created by startHtml.
+     * params: htmlName
+     */
+    public static void endHtml(String htmlName) throws IOException {
+        Files.write(Paths.get(getHtmlFileName(htmlName)), "</ul>\n</body>\n</html>".getBytes(), StandardOpenOption.APPEND);
+    }
 
-        // create the HTML file
-        htmlName = htmlName.endsWith(".html")? htmlName : htmlName + ".html";
+    /**
+     * Create an html file representing the results from the summery.
+     * params: appID, numOutput, summery
+     */
+    public static void createHtml(UUID appID, String htmlName, InputStream summery) throws IOException, ParseException {
+        startHtml(htmlName);
+        appendHtml(htmlName, summery);
+        endHtml(htmlName);
+    }
 
-        new File(htmlName);
-        Files.write(Paths.get(htmlName), html.toString().getBytes());
+    /**
+     * Removes the options (--name=value) from the args.
+     * params: args, options - filled with <name, value> of the options
+     * returns: the rest of the args, in their order
+     */
+    public static String[] extractOptions(String[] args, Map<String, String> options) {
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+            else {
+                rest.add(arg);
+            }
+        }
+        return rest.toArray(new String[0]);
     }
 
     public static void main(String[] args) {
@@ -109,6 +176,12 @@ public class LocalApplication {
         try{
             // extract input file name, output file names and optional termination message from args
             // example args: inputFileName1… inputFileNameN outputFileName1… outputFileNameN n terminate(optional)
+            // and options anywhere: --engine=corenlp|lexicon (the sentiment engine, see SentimentEngine),
+            // --profile=fast|balanced|accurate (the quality of the corenlp engine, see QualityProfile)
+            Map<String, String> options = new HashMap<>();
+            args = extractOptions(args, options);
+            String engine = options.getOrDefault(Constants.ENGINE, SentimentEngine.CORENLP);
+            String profile = options.getOrDefault(Constants.PROFILE, QualityProfile.BALANCED.getName());
             boolean terminate = (args.length % 2 == 0);
             int num_files = (args.length-1)/2;
             int reviewsPerWorker;       // (n)
@@ -132,6 +205,9 @@ public class LocalApplication {
             String C2M_QueueURL = sqs.getURL(Constants.CLIENTS_TO_MANAGER_QUEUE);
             String M2C_QueueURL = sqs.getURL(Constants.MANAGER_TO_CLIENTS_QUEUE);
 
+            // Let the Manager start launching workers while the files are uploaded
+            announceFiles(sqs, C2M_QueueURL, myBucket, Arrays.copyOfRange(args, 0, num_files), reviewsPerWorker);
+
             // Upload all the input files to S3
             String[] keyNamesIn = new String[num_files];
             String[] keyNamesOut = new String[num_files];
@@ -151,37 +227,64 @@ public class LocalApplication {
 
             // Send a message to the (Clients -> apps.Manager) SQS queue, stating the location of the files on S3
             for (int i=0; i<num_files; i++) {
-                Client2Manager messageClientToManager = new Client2Manager(myBucket, keyNamesIn[i], keyNamesOut[i], reviewsPerWorker, num_files);
+                Client2Manager messageClientToManager = new Client2Manager(myBucket, keyNamesIn[i], keyNamesOut[i], reviewsPerWorker, num_files,
+                        engine, profile);
                 sqs.sendMessage(C2M_QueueURL, messageClientToManager.stringifyUsingJSON());
             }
 
-            // Check on the (Manager -> Clients) SQS queue for a message indicating the process is done and the response
-            // (the summary file) is available on S3.
+            // Check on the (Manager -> Clients) SQS queue for messages with parts (chunks) of the summary files, render
+            // each chunk as soon as it is available on S3 and finish once the last chunk of every file was rendered.
+            Map<String, Integer> inKeyToFile = new HashMap<>();
+            List<Set<Integer>> renderedChunks = new ArrayList<>();
+            int[] totalChunks = new int[num_files];
+            for (int i=0; i<num_files; i++) {
+                inKeyToFile.put(keyNamesIn[i], i);
+                renderedChunks.add(new HashSet<>());
+                totalChunks[i] = -1;   // unknown until the last chunk arrives
+                startHtml(htmlNames[i]);
+            }
+
             boolean done = false;
-            List<Message> doneLst = new LinkedList<>();
             while (!done) {
+                List<Message> myMessages = new LinkedList<>();
                 List<Message> doneMessages = sqs.receiveMessages(M2C_QueueURL, false, false);
                 for (Message msg: doneMessages) {
                     JSONObject msgObj= Constants.validateMessageAndReturnObj(msg , Constants.TAGS.MANAGER_2_CLIENT, true);
-                    if (msgObj != null) {
-                        boolean isDoneJson = (boolean) msgObj.get(Constants.IS_DONE);
-                        String inBucketJson = (String) msgObj.get(Constants.IN_BUCKET);
-                        if (isDoneJson && inBucketJson.equals(myBucket)) {
-                            doneLst.add(msg);
-                            done = true;
-                        }
+                    if (msgObj == null || !myBucket.equals(msgObj.get(Constants.IN_BUCKET)))
+                        continue;
+                    myMessages.add(msg);
+
+                    String chunkKey = (String) msgObj.get(Constants.CHUNK_KEY);
+                    if (chunkKey == null)
+                        continue;
+
+                    // (a stale message of a file this run didn't send)
+                    Integer fileIndex = inKeyToFile.get((String) msgObj.get(Constants.IN_KEY));
+                    if (fileIndex == null)
+                        continue;
+                    int chunkIndex = ((Long) msgObj.get(Constants.CHUNK_INDEX)).intValue();
+                    if ((boolean) msgObj.get(Constants.IS_LAST_CHUNK))
+                        totalChunks[fileIndex] = chunkIndex + 1;
+
+                    // a message may be delivered more than once, render each chunk only once
+                    if (renderedChunks.get(fileIndex).add(chunkIndex)) {
+                        S3Object object = s3.getS3().getObject(new GetObjectRequest(myBucket, chunkKey));
+                        appendHtml(htmlNames[fileIndex], object.getObjectContent());
+                        s3.deleteFile(myBucket, chunkKey);
                     }
                 }
                 //delete received messages (after handling them)
-                if(!doneLst.isEmpty())
-                    sqs.deleteMessages(doneLst, M2C_QueueURL);
+                if(!myMessages.isEmpty())
+                    sqs.deleteMessages(myMessages, M2C_QueueURL);
+
+                done = true;
+                for (int i=0; i<num_files; i++) {
+                    done = done && renderedChunks.get(i).size() == totalChunks[i];
+                }
             }
 
-            // Download the summary file from S3
             for (int i=0; i<num_files; i++) {
-                String keyNameOut = keyNamesOut[i];
-                S3Object object = s3.getS3().getObject(new GetObjectRequest(myBucket, keyNameOut));
-                createHtml(appID, htmlNames[i], object.getObjectContent());
+                endHtml(htmlNames[i]);
             }
 
             // Send a termination message to the Manager if it was supplied as one of its input arguments.
@@ -197,6 +300,9 @@ public class LocalApplication {
             }
             s3.deleteBucket(myBucket);
 
+            // let the Manager know it doesn't have to wait for this application before shutting down
+            sqs.sendMessage(C2M_QueueURL, new Client2Manager_ack(myBucket).stringifyUsingJSON());
+
             Constants.printDEBUG("finished getting all Output Files :)");
         }
 
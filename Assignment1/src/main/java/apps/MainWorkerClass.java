@@ -1,75 +1,193 @@
 package apps;
 
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.util.EC2MetadataUtils;
+import handlers.AnnotatorLoader;
+import handlers.LexiconSentimentEngine;
+import handlers.QualityProfile;
 import handlers.SQSHandler;
-import handlers.SentimentAnalysisHandler;
-import messages.Worker2Manager;
+import handlers.SentimentEngine;
+import messages.Worker2Manager_drained;
+import messages.Worker2Manager_ready;
 import org.json.simple.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * A worker: the receive loop takes reviews from the (Manager -> Workers) queue and hands them to
+ * WORKER_THREADS analysis threads (see ReviewAnalyzer), by a queue with a place for one batch of reviews per thread,
+ * so the worker never holds more reviews than it can start analyzing.
+ * The models are loaded in the background (see AnnotatorLoader) while the worker gets its queues, and once the
+ * analysis threads are up the worker sends a Worker2Manager_ready with its startup profile, so the manager knows how
+ * long a worker takes from launch to its first review.
+ * The manager drains a worker through the control queue of that worker (see Constants.workerControlQueue), a control
+ * thread waits on it, so a drain never reaches a worker it wasn't meant for.
+ */
 public class MainWorkerClass {
 
+    private static final long CONTROL_RETRY_MILLIS = 5000;
+
     public static void main(String[] args) {
-        SQSHandler sqs = new SQSHandler(Constants.DEBUG_MODE);
-        SentimentAnalysisHandler sa = new SentimentAnalysisHandler();
-        String review;
-        int sentiment;
+        StartupProfile startup = new StartupProfile(!Constants.DEBUG_MODE);
+        // the models take most of the startup, they start loading before anything else (the models of the other
+        // profiles are loaded in the background once a job asks for them, see WorkerEngines)
+        AnnotatorLoader.preload(QualityProfile.BALANCED.getAnnotators());
+
+        // a local worker process is started with: local <workerId> <instanceType> (see LocalProcessProvider)
+        boolean isLocal = args.length == 3 && args[0].equals(Constants.LOCAL_WORKER_ARG);
+        SQSHandler sqs = new SQSHandler(Constants.DEBUG_MODE || isLocal);
+        // the manager terminates the instance of a drained worker by this id (in debug mode the workers are threads)
+        String workerId;
+        // the manager measures the speed of every instance type by the reports of the workers
+        String instanceType;
+        if (isLocal) {
+            workerId = args[1];
+            instanceType = args[2];
+        }
+        else if (Constants.DEBUG_MODE) {
+            // a debug worker thread is started with the id the manager gave it (see EC2Handler.launchWorkers)
+            workerId = args.length == 1 ? args[0] : UUID.randomUUID().toString();
+            instanceType = Constants.DEFAULT_WORKER_INSTANCE_TYPE;
+        }
+        else {
+            workerId = EC2MetadataUtils.getInstanceId();
+            instanceType = EC2MetadataUtils.getInstanceType();
+        }
+        // (the debug workers share the manager's JVM, they get one thread each)
+        int numThreads = Constants.WORKER_THREADS > 0 ? Constants.WORKER_THREADS
+                : Constants.DEBUG_MODE ? 1 : Runtime.getRuntime().availableProcessors();
+        // the cores are split between the analysis threads, so the annotation of their batches doesn't oversubscribe
+        int annotationThreads = Constants.ANNOTATION_THREADS > 0 ? Constants.ANNOTATION_THREADS
+                : Constants.DEBUG_MODE ? 1 : Math.max(1, Runtime.getRuntime().availableProcessors() / numThreads);
+        AtomicBoolean drained = new AtomicBoolean(false);
+        BlockingQueue<Message> reviews = new ArrayBlockingQueue<>(numThreads * Constants.ANALYSIS_BATCH_SIZE);
+        List<Thread> analyzers = new ArrayList<>();
 
         try {
             // Get the (Manager -> Worker), (Worker -> Manager) SQS queues URLs
             String M2W_QueueURL = sqs.getURL(Constants.MANAGER_TO_WORKERS_QUEUE);
             String W2M_QueueURL = sqs.getURL(Constants.WORKERS_TO_MANAGER_QUEUE);
+            // created before the worker is ready, so the manager can drain it from then on
+            String control_QueueURL = sqs.createSQSQueue(Constants.workerControlQueue(workerId), true);
+            startup.mark("queues");
+            AnnotatorLoader.awaitLoaded();
+            startup.mark("models");
+
+            // start the analysis threads, their pipelines share the loaded annotators
+            ThroughputReporter reporter = new ThroughputReporter(sqs, W2M_QueueURL, workerId, instanceType, numThreads);
+            ResultCache cache = new ResultCache(Constants.RESULT_CACHE_SIZE);
+            // the lexicon engine is stateless, one is shared by all the threads
+            SentimentEngine lexicon = new LexiconSentimentEngine();
+            for (int i = 0; i < numThreads; i++) {
+                Thread analyzer = new Thread(new ReviewAnalyzer(reviews, new WorkerEngines(lexicon), cache, sqs,
+                        M2W_QueueURL, W2M_QueueURL, reporter, annotationThreads));
+                analyzer.setName("Analysis-Thread-" + i);
+                analyzer.start();
+                analyzers.add(analyzer);
+            }
+            startup.mark("pipelines");
+            Constants.printDEBUG("DEBUG WORKER: started " + numThreads + " analysis threads (" + annotationThreads +
+                    " annotation threads each), " + startup);
+            sqs.sendMessage(W2M_QueueURL, new Worker2Manager_ready(workerId, instanceType, startup.getTotalMillis(),
+                    startup.getPhases(), AnnotatorLoader.getLoadMillis()).stringifyUsingJSON());
 
-            while(true){
+            Thread controlThread = new Thread(() -> awaitDrain(sqs, control_QueueURL, workerId, drained));
+            controlThread.setName("Control-Thread");
+            controlThread.setDaemon(true);
+            controlThread.start();
+
+            while(!drained.get()){
                 //receive reviews from Manager
                 List<Message> managerMessages = sqs.receiveMessages(M2W_QueueURL, false, true);
                 Constants.printDEBUG("worker received " + managerMessages.size() + " Messages");
                 for (Message managerMsg: managerMessages) {
-                    JSONObject msgObj = Constants.validateMessageAndReturnObj(managerMsg, Constants.TAGS.MANAGER_2_WORKER, true);
-                    if(msgObj==null){
+                    if (Constants.validateMessageAndReturnObj(managerMsg, Constants.TAGS.MANAGER_2_WORKER, true) == null) {
                         Constants.printDEBUG("DEBUG WORKER: couldn't parse this message!!!");
+                        sqs.deleteMessages(Collections.singletonList(managerMsg), M2W_QueueURL);
                         continue;
                     }
 
-                    review = (String) msgObj.get(Constants.REVIEW);
-                    sentiment = sa.findSentiment(review);
-
-                    //send message to manager with results
-                    sqs.sendMessage(W2M_QueueURL,new Worker2Manager(
-                            (String) msgObj.get(Constants.IN_BUCKET),
-                            (String) msgObj.get(Constants.IN_KEY),
-                            review,
-                            sentiment,
-                            getEntities(sa, review),
-                            getIsSarcastic(sentiment, ((Long) msgObj.get(Constants.RATING)).intValue()))
-                            .stringifyUsingJSON());
+                    // waits while all the analysis threads are busy
+                    reviews.put(managerMsg);
                 }
-                //delete received messages
-                if(!managerMessages.isEmpty())
-                    sqs.deleteMessages(managerMessages, M2W_QueueURL);
             }
+
+            // let the analysis threads finish the reviews they took
+            stopAnalyzers(reviews, analyzers);
+
+            // all the received reviews were sent back, let the manager know this worker can be terminated
+            reporter.flush();
+            sqs.sendMessage(W2M_QueueURL, new Worker2Manager_drained(workerId).stringifyUsingJSON());
+            Constants.printDEBUG(String.format("DEBUG WORKER: drained, cache hit rate %.2f (%d results cached), " +
+                    "closing Worker Script", cache.getHitRate(), cache.size()));
         }
         catch (Exception e){
             System.out.println("Server is Down. closing Worker Script");
             return;
         }
+        finally {
+            // ends the control thread
+            drained.set(true);
+            // the analysis threads are not daemons, the JVM ends (and the worker script restarts it) only after they
+            // do. The reviews they didn't take yet are left to be received again
+            reviews.clear();
+            try {
+                stopAnalyzers(reviews, analyzers);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    private static String getEntities(SentimentAnalysisHandler sa, String review){
-        return sa.getListOfEntities(review).toString();
+    /**
+     * Ends the analysis threads after the reviews they took, and waits for them (none are left after that).
+     */
+    private static void stopAnalyzers(BlockingQueue<Message> reviews, List<Thread> analyzers)
+            throws InterruptedException {
+        for (int i = 0; i < analyzers.size(); i++) {
+            reviews.put(ReviewAnalyzer.STOP);
+        }
+        for (Thread analyzer : analyzers) {
+            analyzer.join();
+        }
+        analyzers.clear();
     }
 
     /**
-     * get if the review is sarcastic or not
-     * params: sentiment, ratings
-     * @return if rating is negative {1,2} and sentiment is positive {3,4} return true
-     *         if rating is positive {4,5} and sentiment is negative {0,1} return true
-     *         else return false
+     * Control thread: waits for the manager to drain this worker, the reviews the worker already took are finished
+     * after that (see the receive loop of main).
+     * params: control_QueueURL - the control queue of this worker, drained - set when the drain arrives
      */
-
-    private static boolean getIsSarcastic(int sentiment, int ratings){
-        return Math.abs((sentiment + 1) - ratings) >= 2;
+    private static void awaitDrain(SQSHandler sqs, String control_QueueURL, String workerId, AtomicBoolean drained) {
+        while (!drained.get()) {
+            try {
+                List<Message> controlMessages = sqs.receiveMessages(control_QueueURL, false, false);
+                for (Message controlMsg : controlMessages) {
+                    JSONObject drainObj = Constants.validateMessageAndReturnObj(controlMsg,
+                            Constants.TAGS.MANAGER_2_WORKER_drain, true);
+                    if (drainObj != null && workerId.equals(drainObj.get(Constants.WORKER_ID))) {
+                        Constants.printDEBUG("DEBUG WORKER: " + workerId + " was asked to drain");
+                        drained.set(true);
+                    }
+                }
+                if (!controlMessages.isEmpty()) {
+                    sqs.deleteMessages(controlMessages, control_QueueURL);
+                }
+            }
+            catch (Exception e) {
+                Constants.printDEBUG("DEBUG WORKER: failed to receive from the control queue: " + e);
+                try {
+                    Thread.sleep(CONTROL_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
     }
-
 }
@@ -2,8 +2,10 @@ package apps;
 
 import com.amazonaws.services.sqs.model.Message;
 import handlers.EC2Handler;
+import handlers.QualityProfile;
 import handlers.S3Handler;
 import handlers.SQSHandler;
+import handlers.SentimentEngine;
 import messages.Manager2Worker;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -12,8 +14,8 @@ import org.json.simple.parser.ParseException;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -24,35 +26,38 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 
 
-public class ManageClients implements Runnable {
+public class ManageClients implements QueueConsumer {
 
     private ConcurrentMap<String, ClientInfo> clientsInfo;
     private AtomicInteger filesCount;
     private AtomicInteger regulerWorkersCount;
     private AtomicInteger extraWorkersCount;
-    private Object waitingObject;
+    private ScalingActuator scaler;
     private PriorityQueue<Integer> maxWorkersPerFile;
     private AtomicBoolean terminate;
 
     private EC2Handler ec2;
     private S3Handler s3;
     private SQSHandler sqs;
+    private ManagerJournal journal;
+    private String C2M_QueueURL;
 
     public ManageClients(ConcurrentMap<String, ClientInfo> clientInfo, AtomicInteger filesCount,
                          AtomicInteger workersCount, AtomicInteger extraWorkersCount, PriorityQueue<Integer> maxWorkersPerFile,
-                         AtomicBoolean terminate, Object waitingObject,
-                         EC2Handler ec2, S3Handler s3, SQSHandler sqs) {
+                         AtomicBoolean terminate, ScalingActuator scaler,
+                         EC2Handler ec2, S3Handler s3, SQSHandler sqs, ManagerJournal journal) {
 
         this.clientsInfo = clientInfo;
         this.filesCount = filesCount;
         this.regulerWorkersCount = workersCount;
         this.extraWorkersCount = extraWorkersCount;
-        this.waitingObject = waitingObject;
+        this.scaler = scaler;
         this.maxWorkersPerFile = maxWorkersPerFile;
         this.terminate = terminate;
         this.ec2 = ec2;
         this.s3 = s3;
         this.sqs = sqs;
+        this.journal = journal;
     }
 
     private long countReviewsPerFile(BufferedReader outputReader) throws IOException, ParseException {
@@ -69,7 +74,8 @@ public class ManageClients implements Runnable {
         return reviewsCounter;
     }
 
-    private void sendMessagesToWorkers(BufferedReader outputReader, String M2W_QueueURL, String bucket, String inKey) throws IOException, ParseException {
+    private void sendMessagesToWorkers(BufferedReader outputReader, String M2W_QueueURL, String bucket, String inKey,
+                                       String engine, String profile, ClientInfo clientInfo) throws IOException, ParseException {
         String line;
         while ((line = outputReader.readLine())  != null) {
 
@@ -81,44 +87,40 @@ public class ManageClients implements Runnable {
             for (Object obj: reviewsArray) {
                 JSONObject singleReview = (JSONObject) obj;
 
+                String reviewId = (String) singleReview.get(Constants.ID);
                 String text = (String) singleReview.get(Constants.TEXT);
                 int rating = ((Long) singleReview.get(Constants.RATING)).intValue();
 
+                // after a recovery, don't dispatch reviews that were already completed
+                if (!clientInfo.isNewReview(inKey, reviewId))
+                    continue;
+
                 // Create message to worker and add it to the queue
-                Manager2Worker M2W_message = new Manager2Worker(bucket, inKey, text, rating);
+                Manager2Worker M2W_message = new Manager2Worker(bucket, inKey, reviewId, text, rating, engine,
+                        profile);
                 sqs.safelySendMessage(M2W_QueueURL, M2W_message.stringifyUsingJSON());
             }
         }
     }
 
     /**
-     * If there is a need for more workers, initiates them.
-     * (If there are k active workers, and the new job requires m workers, then the manager should create m-k new workers, if possible).
+     * Raises the upper bound of the workers fleet for a new file (the Autoscaler launches workers within it).
+     * (If the bound is k workers, and the new job requires m workers, then the bound becomes m).
      * params: currAppReviewsPerWorker - the current local app's reviewsPerWorker parameter (taken from it's client info)
      */
     private void addWorkersIfNeeded(long ReviwsPerWorkers, long fileReviews) {
-        synchronized (waitingObject) {
+        synchronized (scaler) {
             int workersNeeded = (int) fileReviews / (int) ReviwsPerWorkers;
             maxWorkersPerFile.add(workersNeeded);
             
-            int extraWorkersToLaunch = 0;
             // add scalability
             int totalExtraWorkers = filesCount.get() / Constants.ADD_EXTRA_WORKER; //extra worker for every 3 files
             while(extraWorkersCount.get() < totalExtraWorkers ){
                 extraWorkersCount.incrementAndGet();
-                extraWorkersToLaunch++;
             }
 
             int addRegularWorkers = Math.max(workersNeeded - regulerWorkersCount.get(), 0);
-            int numWorkersToLaunch = addRegularWorkers + extraWorkersToLaunch;
-
-            // should start more workers
-            if (numWorkersToLaunch > 0) {
-                String workersArn = ec2.getRoleARN(Constants.WORKERS_ROLE);
-                ec2.launchWorkers_EC2Instances(numWorkersToLaunch, workersArn, Constants.USER_DATA_PATH);
-              }
             regulerWorkersCount.set(regulerWorkersCount.get() + addRegularWorkers);
-            waitingObject.notifyAll();
         }
     }
 
@@ -135,6 +137,9 @@ public class ManageClients implements Runnable {
             String outKey = (String) msgObj.get(Constants.OUT_KEY);
             long reviewsPerWorker = (Long) msgObj.get(Constants.REVIEWS_PER_WORKER);
             int numFiles = ((Long) msgObj.get(Constants.NUM_FILES)).intValue();
+            // (missing in the messages of older clients)
+            String engine = (String) msgObj.getOrDefault(Constants.ENGINE, SentimentEngine.CORENLP);
+            String profile = (String) msgObj.getOrDefault(Constants.PROFILE, QualityProfile.BALANCED.getName());
 
             // If in termination mode and this is a new client, do not accept it's messages (ignore)
             if (terminate.get() && !clientsInfo.containsKey(bucket)){
@@ -142,41 +147,56 @@ public class ManageClients implements Runnable {
                 return;
             }
 
-            // Initialize this local app client in the clients info map if it wasn't initialized yet.
-            // (first message initialize the ClientInfo)
-            ClientInfo clientInfo = new ClientInfo((int)reviewsPerWorker, numFiles);
-            ClientInfo tmp = clientsInfo.putIfAbsent(bucket, clientInfo); //returns null if succesfull. if not returns existing client
-            clientInfo = tmp != null? tmp: clientInfo;
-            synchronized (waitingObject) {
-                waitingObject.notifyAll();
+            // A message may be delivered more than once (or again after a manager recovery), handle each file once
+            if (journal.isClientFinished(bucket) || journal.isFileDispatched(bucket, inKey)) {
+                Constants.printDEBUG("DEBUG MANAGER: file " + inKey + " was already dispatched, ignoring the message");
+                return;
             }
 
+            // Initialize this local app client in the clients info map if it wasn't initialized yet.
+            // (first message initialize the ClientInfo, an announcement that has just expired is replaced)
+            ClientInfo clientInfo;
+            do {
+                clientInfo = new ClientInfo((int)reviewsPerWorker, numFiles);
+                ClientInfo tmp = clientsInfo.putIfAbsent(bucket, clientInfo); //returns null if succesfull. if not returns existing client
+                clientInfo = tmp != null? tmp: clientInfo;
+                if (!clientInfo.fileArrived()) {
+                    clientsInfo.remove(bucket, clientInfo);
+                    clientInfo = null;
+                }
+            } while (clientInfo == null);
 
-            // Downloads the input file from S3.
-            BufferedReader outputReader = s3.downloadFile(bucket, inKey);
-
-            // count how many review there are in this file and update ClientInfo for this local app
-            long reviewsCounter = countReviewsPerFile(outputReader);
-            // update client info
-            clientInfo.putOutputKey(inKey, outKey, reviewsCounter);
+            // A file that was registered before a manager recovery is already in the client info
+            long reviewsCounter;
+            if (clientInfo.hasInputKey(inKey)) {
+                reviewsCounter = clientInfo.getTotalFileReviews(inKey);
+            }
+            else {
+                // Downloads the input file from S3.
+                BufferedReader outputReader = s3.downloadFile(bucket, inKey);
+
+                // count how many review there are in this file and update ClientInfo for this local app
+                reviewsCounter = countReviewsPerFile(outputReader);
+                // update client info
+                clientInfo.putOutputKey(inKey, outKey, reviewsCounter);
+                journal.fileRegistered(bucket, inKey, outKey, reviewsCounter, (int) reviewsPerWorker, numFiles);
+            }
 
             //add workers before sending messages
             addWorkersIfNeeded(reviewsPerWorker, reviewsCounter);
 
             // Downloads the input file (again) from S3.
-            outputReader = s3.downloadFile(bucket, inKey);
+            BufferedReader outputReader = s3.downloadFile(bucket, inKey);
 
             // Get the (Manager -> Workers) queue
             String M2W_QueueURL = sqs.getURL(Constants.MANAGER_TO_WORKERS_QUEUE);
 
             // For each line of the file, go through the reviews array and for each review create a message to the workers and add it to the queue
-            sendMessagesToWorkers(outputReader, M2W_QueueURL, bucket, inKey);
+            sendMessagesToWorkers(outputReader, M2W_QueueURL, bucket, inKey, engine, profile, clientInfo);
+            journal.fileDispatched(bucket, inKey);
 
             filesCount.incrementAndGet();
             clientInfo.incInputFilesReceived();
-            synchronized (waitingObject){
-                waitingObject.notifyAll();
-            }
 
         } catch (ParseException e) {
             e.printStackTrace();
@@ -185,78 +205,125 @@ public class ManageClients implements Runnable {
         }
     }
 
+    /**
+     * A client announced its files before uploading them: registers the client and raises the upper bound of the
+     * workers fleet by the estimated size of its biggest file, so workers boot while the files are uploaded.
+     * The estimate counts as backlog for the Autoscaler until the files are registered (see ClientInfo).
+     * If none of the files arrives within ANNOUNCEMENT_TIMEOUT_MILLIS the client is dropped (see expireAnnouncements).
+     */
+    public void announceMessage(JSONObject msgObj) {
+        String bucket = (String) msgObj.get(Constants.BUCKET);
+        long reviewsPerWorker = (Long) msgObj.get(Constants.REVIEWS_PER_WORKER);
+        int numFiles = ((Long) msgObj.get(Constants.NUM_FILES)).intValue();
+        long estimatedReviews = (Long) msgObj.get(Constants.ESTIMATED_REVIEWS);
+        long maxFileReviews = (Long) msgObj.get(Constants.MAX_FILE_REVIEWS);
+
+        // same rules as for the files of a new client
+        if ((terminate.get() && !clientsInfo.containsKey(bucket)) || journal.isClientFinished(bucket)) {
+            Constants.printDEBUG("DEBUG MANAGER: declining the announcement of " + bucket);
+            return;
+        }
+
+        ClientInfo clientInfo = new ClientInfo((int) reviewsPerWorker, numFiles);
+        ClientInfo tmp = clientsInfo.putIfAbsent(bucket, clientInfo);
+        clientInfo = tmp != null ? tmp : clientInfo;
+
+        // the announcement may arrive after the files (the queue doesn't keep the order), then it is not needed
+        if (!clientInfo.getInputKeys().isEmpty()) {
+            return;
+        }
+        int workersNeeded = (int) (maxFileReviews / reviewsPerWorker);
+        clientInfo.announce(estimatedReviews, workersNeeded);
+
+        synchronized (scaler) {
+            regulerWorkersCount.set(Math.max(regulerWorkersCount.get(), workersNeeded));
+        }
+        Constants.printDEBUG("DEBUG MANAGER: " + bucket + " announced ~" + estimatedReviews + " reviews in "
+                + numFiles + " files");
+    }
+
+    /**
+     * Drops the clients that announced their files and didn't send any of them in time, and lowers the upper bound
+     * of the workers fleet back to what the files in work and the rest of the announcements need.
+     */
+    public void expireAnnouncements() {
+        boolean isExpired = false;
+        for (Map.Entry<String, ClientInfo> entry : clientsInfo.entrySet()) {
+            if (entry.getValue().expireAnnouncement()) {
+                clientsInfo.remove(entry.getKey(), entry.getValue());
+                isExpired = true;
+                Constants.printDEBUG("DEBUG MANAGER: the announcement of " + entry.getKey() + " expired");
+            }
+        }
+        if (!isExpired) {
+            return;
+        }
+
+        synchronized (scaler) {
+            Integer maxFileWorkers = maxWorkersPerFile.peek();
+            int bound = maxFileWorkers == null ? 1 : Math.max(maxFileWorkers, 1);
+            for (ClientInfo clientInfo : clientsInfo.values()) {
+                if (clientInfo.isAnnouncedOnly()) {
+                    bound = Math.max(bound, clientInfo.getAnnouncedWorkers());
+                }
+            }
+            regulerWorkersCount.set(Math.min(regulerWorkersCount.get(), bound));
+        }
+    }
+
     /**
      * Starts the termination process.
      */
     public void terminateMessage() {
         terminate.set(true);
+        journal.terminateRequested();
         System.out.println("Starting termination process");
-        synchronized (waitingObject) {
-            waitingObject.notifyAll();
-        }
     }
 
     @Override
-    public void run() {
-        Constants.printDEBUG("Manage-Clients: started running");
-
+    public List<Message> receive() {
         // Get the (Clients -> Manager) SQS queues URLs
-        String C2M_QueueURL = sqs.getURL(Constants.CLIENTS_TO_MANAGER_QUEUE);
+        if (C2M_QueueURL == null) {
+            C2M_QueueURL = sqs.getURL(Constants.CLIENTS_TO_MANAGER_QUEUE);
+        }
+        Constants.printDEBUG("Checking queue for messages from clients");
+        return sqs.receiveMessages(C2M_QueueURL, false, true);
+    }
 
-        // Go through the (Clients -> Manager) queue and handler each message.
-        // Continue until termination
+    @Override
+    public void handle(List<Message> messages) {
         JSONObject jsonObject;
-        boolean running = true;
-        while (running && !Thread.interrupted()) {
-            Constants.printDEBUG("Checking queue for messages from clients");
+        for (Message message: messages) {
+            jsonObject = Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER, false);
 
-            List<Message> messages = new LinkedList<>();
             try {
-                messages = sqs.receiveMessages(C2M_QueueURL, false, true);
-            }catch (Exception e) {
-                if (Thread.interrupted()) {
-                    Constants.printDEBUG("Thread interrupted, killing it softly");
-                    break;
+                if (jsonObject != null) {
+                    inputFileMessage(jsonObject);
                 } else {
-                    e.printStackTrace();
-                }
-            }
-
-            for (Message message: messages) {
-                jsonObject = Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER, false);
-
-                try {
-                    if (jsonObject != null) {
-                        inputFileMessage(jsonObject);
-                    } else {
-                        if(Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER_terminate, true) !=null)
-                            terminateMessage();
-                        else{
-                            Constants.printDEBUG("DEBUG Manage CLIENTS: couldn't parse this message!!!");
-                            continue;
-                        }
+                    JSONObject ackObj = Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER_ack, false);
+                    JSONObject announceObj = Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER_announce, false);
+                    if (announceObj != null)
+                        announceMessage(announceObj);
+                    else if (ackObj != null)
+                        journal.clientAcknowledged((String) ackObj.get(Constants.SENDER_BUCKET));
+                    else if(Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER_terminate, true) !=null)
+                        terminateMessage();
+                    else{
+                        Constants.printDEBUG("DEBUG Manage CLIENTS: couldn't parse this message!!!");
+                        continue;
                     }
-                } catch (Exception e) {
-                    Constants.printDEBUG("MANAGE_CLIENTS: Got an unexpected message or can't parse message. Got exception: " + e);
-                    Constants.printDEBUG("Ignored the message");
                 }
-            }
-            // delete received messages (after handling them)
-            if (!messages.isEmpty()){
-                running = sqs.safelyDeleteMessages(messages, C2M_QueueURL);
-            }
-
-            // If manager is in termination mode and finished handling all clients (existing prior to the termination message)
-            // then this thread has finish
-            if (clientsInfo==null)
-                Constants.printDEBUG("DEBUG MANAGE-CLIENTS: clientsInfo is null");
-            if (clientsInfo.isEmpty() && terminate.get()) {
-                running = false;
+            } catch (Exception e) {
+                Constants.printDEBUG("MANAGE_CLIENTS: Got an unexpected message or can't parse message. Got exception: " + e);
+                Constants.printDEBUG("Ignored the message");
             }
         }
-        Constants.printDEBUG("DEBUG MANAGE-CLIENTS: Thread left safely, terminate is: " + terminate.get());
-        synchronized (waitingObject){
-            waitingObject.notifyAll();
+        // delete received messages (after handling them, and after their journal records are on the disk)
+        if (!messages.isEmpty()){
+            journal.sync();
+            sqs.safelyDeleteMessages(messages, C2M_QueueURL);
         }
+        // (checked after every long polling, also when no message was received)
+        expireAnnouncements();
     }
 }
@@ -1,6 +1,4 @@
 package apps;
-import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.sqs.model.Message;
 import handlers.EC2Handler;
 import handlers.S3Handler;
@@ -9,180 +7,360 @@ import messages.Manager2Client;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
-import java.util.LinkedList;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+    Receives the workers results and hands them to the results pipeline stages (see ResultsPipeline).
     After the manger receives response messages from the workers on all the files on an input file, then it:
         Creates a summary output file accordingly,
         Uploads the output file to S3,
         Sends a message to the application with the location of the file.
 */
 
-public class ManageWorkers implements Runnable {
+public class ManageWorkers implements QueueConsumer {
     private ConcurrentMap<String, ClientInfo> clientsInfo;
     private AtomicInteger filesCount;
     private AtomicInteger regulerWorkersCount;
     private AtomicInteger extraWorkersCount;
     private PriorityQueue<Integer> maxWorkersPerFile;
     private AtomicBoolean terminate;
-    private Object waitingObject;
+    private ScalingActuator scaler;
     private EC2Handler ec2;
     private S3Handler s3;
     private SQSHandler sqs;
+    private ResultsPipeline pipeline;
+    private ManagerJournal journal;
+    private AtomicLong completedReviews;          // new reviews completed by all the consumers (see Autoscaler)
+    private String W2M_QueueURL;
+    private String M2C_QueueURL;
 
 
     public ManageWorkers(ConcurrentMap<String, ClientInfo> clientsInfo, AtomicInteger filesCount,
                          AtomicInteger regulerWorkersCount, AtomicInteger extraWorkersCount,
-                         PriorityQueue<Integer> maxWorkersPerFile, AtomicBoolean terminate, Object waitingObject,
-                         EC2Handler ec2, S3Handler s3, SQSHandler sqs) {
+                         PriorityQueue<Integer> maxWorkersPerFile, AtomicBoolean terminate, ScalingActuator scaler,
+                         EC2Handler ec2, S3Handler s3, SQSHandler sqs, ResultsPipeline pipeline,
+                         ManagerJournal journal, AtomicLong completedReviews) {
         this.clientsInfo = clientsInfo;
         this.filesCount = filesCount;
         this.regulerWorkersCount = regulerWorkersCount;
         this.extraWorkersCount = extraWorkersCount;
         this.maxWorkersPerFile = maxWorkersPerFile;
         this.terminate = terminate;
-        this.waitingObject = waitingObject;
+        this.scaler = scaler;
         this.ec2 = ec2;
         this.s3 = s3;
         this.sqs = sqs;
+        this.pipeline = pipeline;
+        this.journal = journal;
+        this.completedReviews = completedReviews;
+    }
+
+    private void initQueueURLs() {
+        // Get the (Worker -> Manager) ( Manager -> Clients) SQS queues URLs
+        if (W2M_QueueURL == null) {
+            W2M_QueueURL = sqs.getURL(Constants.WORKERS_TO_MANAGER_QUEUE);
+            M2C_QueueURL = sqs.getURL(Constants.MANAGER_TO_CLIENTS_QUEUE);
+        }
     }
 
     @Override
-    public void run() {
-        Constants.printDEBUG("Manage-workers: started running");
+    public List<Message> receive() {
+        initQueueURLs();
+        return sqs.receiveMessages(W2M_QueueURL, false, true);
+    }
 
-        // Get the (Worker -> Manager) ( Manager -> Clients) SQS queues URLs
-        String W2M_QueueURL = sqs.getURL(Constants.WORKERS_TO_MANAGER_QUEUE);
-        String M2C_QueueURL = sqs.getURL(Constants.MANAGER_TO_CLIENTS_QUEUE);
-        boolean running = true;
-
-        while (running && !Thread.interrupted()){
-            List<Message> workerMessages = new LinkedList<>();
-            try{
-                workerMessages = sqs.receiveMessages(W2M_QueueURL,false, true);
-            }catch (Exception e) {
-                if (Thread.interrupted()) {
-                    Constants.printDEBUG("Thread interrupted, killing it softly");
-                    break;
-                } else {
-                    e.printStackTrace();
-                }
+    /**
+     * Hands the received results to the decode stage (see ResultsPipeline), the next batch is received right away.
+     */
+    @Override
+    public void handle(List<Message> workerMessages) {
+        Constants.printDEBUG("Manager received " + workerMessages.size() + " Messages from W2M Queue");
+        for (Message workerMsg : workerMessages) {
+            if (!submit(pipeline.getDecodeStage(), workerMsg.getMessageId(), () -> decode(workerMsg))) {
+                // the rest of the batch will be received again after the visibility timeout
+                break;
             }
+        }
+    }
 
-            Constants.printDEBUG("Manager received " + workerMessages.size() + " Messages from W2M Queue");
+    /**
+     * Submits the task to the stage, returns false if the thread was interrupted while the stage was full.
+     */
+    private boolean submit(Stage stage, String key, Runnable task) {
+        try {
+            stage.submit(key, task);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            for (Message workerMsg : workerMessages) {
+    /**
+     * Submits the task to the thread of the stage that owns the file (inBucket, inKey), returns false if the thread
+     * was interrupted while the stage was full.
+     */
+    private boolean submit(Stage stage, String inBucket, String inKey, Runnable task) {
+        try {
+            stage.submit(inBucket, inKey, task);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-                // parse json
-                JSONObject msgObj= Constants.validateMessageAndReturnObj(workerMsg , Constants.TAGS.WORKER_2_MANAGER, true);
-                if (msgObj == null){
-                    Constants.printDEBUG("DEBUG Manage WORKERs: couldn't parse this message!!!");
-                    continue;
-                }
+    /**
+     * Deletes the message on the ack stage, once the journal records of its handling are on the disk (the records
+     * of the messages handled meanwhile are forced together).
+     */
+    private void acknowledge(Message workerMsg) {
+        submit(pipeline.getAckStage(), workerMsg.getMessageId(), () -> {
+            journal.sync();
+            sqs.safelyDeleteMessages(Collections.singletonList(workerMsg), W2M_QueueURL);
+        });
+    }
 
-                String inBucket = (String) msgObj.get(Constants.IN_BUCKET);
-                String inKey = (String) msgObj.get(Constants.IN_KEY);
+    /**
+     * Decode stage: parses the result and routes it to the apply thread that owns its file.
+     */
+    private void decode(Message workerMsg) {
+        // a worker that was scaled in confirms it is drained, its instance can be terminated
+        JSONObject drainedObj = Constants.validateMessageAndReturnObj(workerMsg, Constants.TAGS.WORKER_2_MANAGER_drained, false);
+        if (drainedObj != null) {
+            scaler.workerDrained((String) drainedObj.get(Constants.WORKER_ID));
+            acknowledge(workerMsg);
+            return;
+        }
 
-                ClientInfo clientInfo = clientsInfo.get(inBucket);
-                if(clientInfo == null){
-                    if (Constants.DEBUG_MODE){
-                        Constants.printDEBUG("DEBUG Manage WORKERs: clientInfo is null!!!");
-                    }
-                    continue;
-                }
+        // a worker reports its speed (for the choice of instance types)
+        JSONObject reportObj = Constants.validateMessageAndReturnObj(workerMsg, Constants.TAGS.WORKER_2_MANAGER_report, false);
+        if (reportObj != null) {
+            scaler.workerReported((String) reportObj.get(Constants.WORKER_ID),
+                    (String) reportObj.get(Constants.INSTANCE_TYPE),
+                    (Long) reportObj.get(Constants.PROCESSED_REVIEWS), (Long) reportObj.get(Constants.BUSY_MILLIS),
+                    // (missing in the reports of older workers)
+                    (Long) reportObj.getOrDefault(Constants.CACHE_HITS, 0L));
+            acknowledge(workerMsg);
+            return;
+        }
 
-                boolean isUpdated = clientInfo.updateLocalOutputFile(inBucket,inKey, msgObj.toJSONString());
-                if (isUpdated) {
-
-                    // check if there are more reviews for this file
-                   long reviewsLeft = clientInfo.decOutputCounter(inKey);
-                   if (reviewsLeft == 0){
-                       String outKey = clientInfo.getOutKey(inKey);
-                       s3.uploadLocalToS3(inBucket, clientInfo.getLocalFileName(inBucket,inKey), outKey);
-                       clientInfo.deleteLocalFile(inBucket, inKey);
-                       filesCount.decrementAndGet();
-                       removeWorkersIfNeeded(clientInfo, inKey);
-                       synchronized (waitingObject){
-                           waitingObject.notifyAll();
-                       }
-
-                      // check if there are no more files for this client
-                      int outputFilesLeft = clientInfo.decOutputFilesLeft();
-                      if (outputFilesLeft == 0){
-                          Constants.printDEBUG("sending done mail to client");
-                          running = sqs.safelySendMessage(M2C_QueueURL,new Manager2Client(true, inBucket)
-                                  .stringifyUsingJSON());
-                          clientsInfo.remove(inBucket);
-                          synchronized (waitingObject){
-                              waitingObject.notifyAll();
-                          }
-                      }
-                   }
-                }
+        // a worker is up and about to take its first review
+        JSONObject readyObj = Constants.validateMessageAndReturnObj(workerMsg, Constants.TAGS.WORKER_2_MANAGER_ready, false);
+        if (readyObj != null) {
+            scaler.workerReady((String) readyObj.get(Constants.WORKER_ID),
+                    (Map<String, Long>) readyObj.get(Constants.STARTUP_PHASES));
+            acknowledge(workerMsg);
+            return;
+        }
+
+        // parse json
+        JSONObject msgObj= Constants.validateMessageAndReturnObj(workerMsg , Constants.TAGS.WORKER_2_MANAGER, true);
+        if (msgObj == null){
+            Constants.printDEBUG("DEBUG Manage WORKERs: couldn't parse this message!!!");
+            acknowledge(workerMsg);
+            return;
+        }
+
+        String inBucket = (String) msgObj.get(Constants.IN_BUCKET);
+        String inKey = (String) msgObj.get(Constants.IN_KEY);
+
+        ClientInfo clientInfo = clientsInfo.get(inBucket);
+        if(clientInfo == null){
+            if (Constants.DEBUG_MODE){
+                Constants.printDEBUG("DEBUG Manage WORKERs: clientInfo is null!!!");
             }
+            acknowledge(workerMsg);
+            return;
+        }
+
+        submit(pipeline.getApplyStage(), inBucket, inKey, () -> applyResult(workerMsg, msgObj, clientInfo));
+    }
 
-            // delete received messages (after handling them)
-            if (!workerMessages.isEmpty()){
-                running = sqs.safelyDeleteMessages(workerMessages, W2M_QueueURL);
+    /**
+     * Apply stage: handles a single worker result. Runs on the apply thread that owns the file (inBucket, inKey).
+     * The result is durable once it is in the local output file and the journal, so the message is acknowledged
+     * here, and the S3 work (if any is due) is left to the output stage.
+     */
+    private void applyResult(Message workerMsg, JSONObject msgObj, ClientInfo clientInfo) {
+        String inBucket = (String) msgObj.get(Constants.IN_BUCKET);
+        String inKey = (String) msgObj.get(Constants.IN_KEY);
+
+        String reviewId = (String) msgObj.get(Constants.REVIEW_ID);
+
+        boolean isUpdated = clientInfo.updateLocalOutputFile(inBucket,inKey, reviewId, msgObj.toJSONString());
+        if (isUpdated) {
+            journal.reviewCompleted(inBucket, inKey, reviewId);
+            completedReviews.incrementAndGet();
+            clientInfo.getAnalytics(inKey).addResult(
+                    ((Long) msgObj.get(Constants.SENTIMENT)).intValue(),
+                    (Boolean) msgObj.get(Constants.IS_SARCASTIC),
+                    ((Long) msgObj.get(Constants.RATING)).intValue(),
+                    (String) msgObj.get(Constants.ENTITIES));
+
+            // check if there are more reviews for this file
+            boolean isComplete = clientInfo.decOutputCounter(inKey) == 0;
+            int chunkIndex = clientInfo.sealChunkIfDue(inBucket, inKey, isComplete);
+            if (chunkIndex >= 0 || isComplete) {
+                submitOutput(clientInfo, inBucket, inKey, Collections.emptyList(), chunkIndex, isComplete);
             }
-            if (clientsInfo.isEmpty() && terminate.get()) {
-                running = false;
+        }
+
+        // delete the message (after handling it)
+        acknowledge(workerMsg);
+    }
+
+    /**
+     * Output stage: publishes the sealed chunks of the file, and completes it if all its reviews are done.
+     * Routed by file, so the chunks of a file are published in order, and before the file is completed.
+     * Called on the apply thread of the file, the output task gets a snapshot of the analytics (the apply thread
+     * owns the progress of the file, see ClientInfo).
+     */
+    private void submitOutput(ClientInfo clientInfo, String inBucket, String inKey, List<Integer> pendingChunks,
+                              int chunkIndex, boolean isComplete) {
+        String summary = isComplete ? clientInfo.getAnalytics(inKey).stringifyUsingJSON() : null;
+        submit(pipeline.getOutputStage(), inBucket, inKey, () -> {
+            for (int pendingChunk : pendingChunks) {
+                publishChunk(clientInfo, inBucket, inKey, pendingChunk, false, M2C_QueueURL);
+            }
+            if (chunkIndex >= 0) {
+                publishChunk(clientInfo, inBucket, inKey, chunkIndex, isComplete, M2C_QueueURL);
+            }
+            if (isComplete) {
+                completeFile(clientInfo, inBucket, inKey, summary, M2C_QueueURL);
+            }
+        });
+    }
+
+    /**
+     * All the reviews of the file are done: uploads the output and its summary, and if this was the last file of
+     * the client, lets it know it is done. Runs on the output thread that owns the file.
+     * params: summary - the analytics of the file (taken by its apply thread)
+     */
+    private void completeFile(ClientInfo clientInfo, String inBucket, String inKey, String summary,
+                              String M2C_QueueURL) {
+        String outKey = clientInfo.getOutKey(inKey);
+        s3.uploadLocalToS3(inBucket, clientInfo.getLocalFileName(inBucket,inKey), outKey);
+        s3.uploadStringToS3(inBucket, clientInfo.getSummaryKey(inKey), summary);
+        journal.fileUploaded(inBucket, inKey);
+        clientInfo.deleteLocalFile(inBucket, inKey);
+        filesCount.decrementAndGet();
+        removeWorkersIfNeeded(clientInfo, inKey);
+
+        // check if there are no more files for this client
+        int outputFilesLeft = clientInfo.decOutputFilesLeft();
+        if (outputFilesLeft == 0){
+            finishClient(inBucket, M2C_QueueURL);
+        }
+    }
+
+    private void finishClient(String inBucket, String M2C_QueueURL) {
+        Constants.printDEBUG("sending done mail to client");
+        sqs.safelySendMessage(M2C_QueueURL,new Manager2Client(true, inBucket)
+                .stringifyUsingJSON());
+        journal.clientFinished(inBucket);
+        clientsInfo.remove(inBucket);
+    }
+
+    /**
+     * Finishes the work that was cut in the middle when the previous manager went down (see ManagerJournal):
+     * publishes chunks that were sealed but not published, completes files whose reviews were all done and
+     * finishes clients whose files were all uploaded. Called once, after the state was recovered.
+     */
+    public void finishRecoveredFiles() {
+        initQueueURLs();
+
+        for (String inBucket : clientsInfo.keySet()) {
+            ClientInfo clientInfo = clientsInfo.get(inBucket);
+            if (clientInfo.getInputKeys().isEmpty() && clientInfo.getOutputFilesLeft() == 0) {
+                finishClient(inBucket, M2C_QueueURL);
+                continue;
+            }
+
+            for (String inKey : clientInfo.getInputKeys()) {
+                submit(pipeline.getApplyStage(), inBucket, inKey, () -> {
+                    List<Integer> pendingChunks = new ArrayList<>(clientInfo.getPendingChunks(inKey));
+                    clientInfo.getPendingChunks(inKey).clear();
+
+                    boolean isComplete = clientInfo.getCounter(inKey) == 0;
+                    int chunkIndex = isComplete ? clientInfo.sealChunkIfDue(inBucket, inKey, true) : -1;
+                    if (!pendingChunks.isEmpty() || isComplete) {
+                        submitOutput(clientInfo, inBucket, inKey, pendingChunks, chunkIndex, isComplete);
+                    }
+                });
             }
         }
-        Constants.printDEBUG("DEBUG MANAGE-WORKERS: Thread left safely, terminate is: " + terminate.get());
-        synchronized (waitingObject){
-            waitingObject.notifyAll();
+    }
+
+    /**
+     * Seals the chunks that are due by time (CHUNK_INTERVAL_MILLIS passed since the last chunk of their file), a
+     * chunk is otherwise checked only when a result of its file arrives. Every file is checked on its apply thread.
+     * Called every CHUNK_INTERVAL_MILLIS (see ResultsPipeline.scheduleTick).
+     */
+    public void sealDueChunks() {
+        initQueueURLs();
+
+        for (Map.Entry<String, ClientInfo> client : clientsInfo.entrySet()) {
+            String inBucket = client.getKey();
+            ClientInfo clientInfo = client.getValue();
+            for (String inKey : clientInfo.getInputKeys()) {
+                boolean isSubmitted = submit(pipeline.getApplyStage(), inBucket, inKey, () -> {
+                    int chunkIndex = clientInfo.sealChunkIfDue(inBucket, inKey, false);
+                    if (chunkIndex >= 0) {
+                        submitOutput(clientInfo, inBucket, inKey, Collections.emptyList(), chunkIndex, false);
+                    }
+                });
+                if (!isSubmitted) {
+                    return;
+                }
+            }
         }
+    }
 
+    private void publishChunk(ClientInfo clientInfo, String inBucket, String inKey, int chunkIndex, boolean isLast,
+                              String M2C_QueueURL) {
+        String chunkFileName = clientInfo.getLocalChunkFileName(inBucket, inKey, chunkIndex);
+        String chunkKey = clientInfo.getChunkKey(inKey, chunkIndex);
+        s3.uploadLocalToS3(inBucket, chunkFileName, chunkKey);
+        new File(chunkFileName).delete();
+
+        Constants.printDEBUG("sending chunk " + chunkIndex + " of " + inKey + " to client");
+        sqs.safelySendMessage(M2C_QueueURL, new Manager2Client(inBucket, inKey, chunkKey, chunkIndex, isLast)
+                .stringifyUsingJSON());
+        journal.chunkPublished(inBucket, inKey, chunkIndex, isLast);
     }
 
     private void removeWorkersIfNeeded(ClientInfo clientInfo, String inKey) {
         // tell the manager there is one less client to serve
-        synchronized (waitingObject) {
+        synchronized (scaler) {
 
-            int extraWorkersToTerminate= 0;
             // add scalability
             int totalExtraWorkers = filesCount.get() / Constants.ADD_EXTRA_WORKER; //extra worker for every 3 files
             while(extraWorkersCount.get() > totalExtraWorkers ){
                 extraWorkersCount.decrementAndGet();
-                extraWorkersToTerminate++;
             }
 
-            // terminate unneeded workers
+            // lower the bound to the needs of the biggest file left
             long workersPerClient = clientInfo.getTotalFileReviews(inKey) / clientInfo.getReviewsPerWorker();
             maxWorkersPerFile.remove((int)workersPerClient);
             Integer currMax = maxWorkersPerFile.peek();
             if (currMax==null){
-                waitingObject.notifyAll();
                 return;
             }
 
             int regulerWorkersToTerminate = Math.max(regulerWorkersCount.get() - currMax,0);
-            int numberOfWorkersToTerminate = regulerWorkersToTerminate + extraWorkersToTerminate;
-
-            if (numberOfWorkersToTerminate > 0) {
-                List<Instance> instances = ec2.listInstances(false);
-                for (Instance instance: instances) {
-                    for (Tag tag: instance.getTags()) {
-                        if (tag.getValue().equals(Constants.INSTANCE_TAG.WORKER.toString())
-                                && instance.getState().getName().equals("running")) {
-                            ec2.terminateEC2Instance(instance.getInstanceId());
-                            numberOfWorkersToTerminate --;
-                            break;
-                        }
-                    }
-                    if (numberOfWorkersToTerminate == 0){
-                        break;
-                    }
-                }
-            }
             regulerWorkersCount.set(regulerWorkersCount.get() - regulerWorkersToTerminate);
-            waitingObject.notifyAll();
+
+            // the Autoscaler scales the fleet in to the new upper bound
         }
     }
 
@@ -2,9 +2,13 @@ package apps;
 
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.sqs.model.Message;
+import handlers.ComputeProvider;
 import handlers.EC2Handler;
+import handlers.LocalProcessProvider;
 import handlers.S3Handler;
 import handlers.SQSHandler;
+import org.json.simple.JSONObject;
 
 import java.io.*;
 import java.util.*;
@@ -12,15 +16,23 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Manager {
 
     private static EC2Handler ec2;
     private static S3Handler s3;
     private static SQSHandler sqs;
+    private static ComputeProvider compute;     // the workers fleet (EC2 instances, or local processes)
 
     private static final int MAX_THREADS_PER_GROUP = 10;
     private static final int INITIAL_THREADS = 3;
+    private static final int DECODE_THREADS = 2;
+    private static final int RESULT_SHARDS = 4;
+    private static final int OUTPUT_THREADS = 4;
+    private static final int ACK_THREADS = 2;
+    private static final int STAGE_CAPACITY = 100;
+    private static final long MAX_SHUTDOWN_WAIT_MILLIS = 120000;
 
     private static ConcurrentMap<String, ClientInfo> clientsInfo;
     private static AtomicInteger filesCount;
@@ -28,168 +40,178 @@ public class Manager {
     private static AtomicBoolean terminate;
     private static AtomicInteger extraWorkersCount;
     private static PriorityQueue<Integer> maxWorkersPerFile;
+    private static AtomicLong completedReviews;        // new reviews, not the duplicate results or the ticks
+    private static ResultsPipeline resultsPipeline;
+    private static ManagerJournal journal;
 
-    private static LinkedList<Thread> clientsThreads;
-    private static LinkedList<Thread> workersThreads;
-    private static int clientsThreadCount;
-    private static int workersThreadCount;
+    private static ConsumerPool clientsPool;
+    private static ConsumerPool workersPool;
 
-    private static final Object waitingObject = new Object();
+    private static ScalingActuator scaler;
+    private static Autoscaler autoscaler;
 
 
-    public static void initialConfigurations(boolean isClient) {
+    public static void initialConfigurations(boolean isClient) throws IOException {
 
         // initial configurations
         ec2 = new EC2Handler(isClient);
         s3 = new S3Handler(isClient);
         sqs = new SQSHandler(isClient);
+        compute = Constants.LOCAL_WORKERS ? new LocalProcessProvider() : ec2;
 
         filesCount = new AtomicInteger(0);
         regulerWorkersCount = new AtomicInteger(0);
         terminate = new AtomicBoolean(false);
         extraWorkersCount = new AtomicInteger(0);
         maxWorkersPerFile = new PriorityQueue<>(Collections.reverseOrder());
-
-        clientsThreads = new LinkedList<>();
-        workersThreads = new LinkedList<>();
-        clientsThreadCount = 0;
-        workersThreadCount = 0;
+        completedReviews = new AtomicLong(0);
 
         clientsInfo = new ConcurrentHashMap<>();
+        resultsPipeline = new ResultsPipeline(DECODE_THREADS, RESULT_SHARDS, OUTPUT_THREADS, ACK_THREADS, STAGE_CAPACITY);
+        journal = new ManagerJournal(Constants.JOURNAL_PATH, Constants.SNAPSHOT_PATH);
     }
 
-    public static void main(String[] args) throws InterruptedException {
-        initialConfigurations(Constants.DEBUG_MODE);
-
-        //launch first worker!
-        ec2.launchWorkers_EC2Instances(1,ec2.getRoleARN(Constants.WORKERS_ROLE), Constants.USER_DATA_PATH);
-        regulerWorkersCount.incrementAndGet();
-
-        Thread workersThread;
-        Thread clientsThread;
-
-        Thread.sleep(500);
-
-        // start the first threads (INITIAL_THREADS for workers and INITIAL_THREADS for clients)
-        for (int i = 0; i < INITIAL_THREADS ; i++) {
-            workersThread = new Thread(new ManageWorkers(clientsInfo, filesCount, regulerWorkersCount, extraWorkersCount,
-                    maxWorkersPerFile,terminate, waitingObject, ec2, s3, sqs));
-            clientsThread = new Thread(new ManageClients(clientsInfo, filesCount, regulerWorkersCount, extraWorkersCount,
-                    maxWorkersPerFile, terminate, waitingObject, ec2, s3, sqs));
-
-            workersThreads.add(workersThread);
-            clientsThreads.add(clientsThread);
-
-            workersThreadCount++;
-            clientsThreadCount++;
-            workersThread.setName("Manage-Workers-Thread");
-            workersThread.start();
-
-            clientsThread.setName("Manage-clients-Thread");
-            clientsThread.start();
-        }
-
-        while (!terminate.get()) {
-
-            if(Constants.DEBUG_MODE){
-                Constants.printDEBUG("DEBUG MANAGER: number of manage-clients threads: " + clientsThreadCount);
-                Constants.printDEBUG("DEBUG MANAGER: number of manage-workers threads: " + workersThreadCount);
-                Constants.printDEBUG("DEBUG MANAGER: number of filesCount threads: " + filesCount.get());
-            }
-
-            synchronized (waitingObject) {
-
-                // wakes up when:
-                // 1. new worker - in ManageClients
-                // 2. new client - in ManageClients
-                // 3. client is done - in ManageWorkers
-                // 4. worker is done  - in ManageWorkers
-                waitingObject.wait();
-                if(terminate.get()){
-                    break;
+    /**
+     * Rebuilds the clients state from the journal of the previous manager (if it went down in the middle of work).
+     * Files that were already dispatched to the workers are counted as in-work, files that weren't will be
+     * dispatched when their (undeleted) client message is received again.
+     */
+    private static void recoverState() {
+        for (Map.Entry<String, ManagerJournal.ClientState> clientEntry : journal.getRecoveredClients().entrySet()) {
+            String bucket = clientEntry.getKey();
+            ManagerJournal.ClientState client = clientEntry.getValue();
+            ClientInfo clientInfo = new ClientInfo(client.reviewsPerWorker, client.numFiles);
+            // (a client is journaled once its first file is registered)
+            clientInfo.fileArrived();
+
+            int uploadedFiles = 0;
+            for (Map.Entry<String, ManagerJournal.FileState> fileEntry : client.files.entrySet()) {
+                ManagerJournal.FileState file = fileEntry.getValue();
+                if (file.isUploaded) {
+                    uploadedFiles++;
+                    continue;
                 }
-
-                // filesCount can increase only on waitingObject synchronization
-                while (clientsThreadCount < (filesCount.get() + INITIAL_THREADS)  && clientsThreadCount < MAX_THREADS_PER_GROUP) {
-                    clientsThread = new Thread(new ManageClients(clientsInfo, filesCount, regulerWorkersCount,
-                            extraWorkersCount, maxWorkersPerFile, terminate, waitingObject, ec2, s3, sqs));
-                    clientsThreads.add(clientsThread);
-                    clientsThreadCount++;
-                    clientsThread.setName("Manage-clients-Thread");
-                    Constants.printDEBUG("DEBUG MANAGER: Creating Manage-clients thread. count is: " +clientsThreadCount);
-                    clientsThread.start();
+                clientInfo.restoreFile(bucket, fileEntry.getKey(), file);
+                if (file.isDispatched) {
+                    filesCount.incrementAndGet();
+                    clientInfo.incInputFilesReceived();
+                    maxWorkersPerFile.add((int) file.totalFileReviews / client.reviewsPerWorker);
                 }
+            }
+            clientInfo.setOutputFilesLeft(client.numFiles - uploadedFiles);
+            clientsInfo.put(bucket, clientInfo);
+            Constants.printDEBUG("DEBUG MANAGER: recovered client " + bucket + ":\n" + clientInfo);
+        }
+        terminate.set(journal.isTerminateRequested());
+    }
 
-                // workersCount can increase only on waitingObject synchronization
-                while (workersThreadCount < (regulerWorkersCount.get() + INITIAL_THREADS)  && workersThreadCount < MAX_THREADS_PER_GROUP) {
-                    workersThread = new Thread(new ManageWorkers(clientsInfo, filesCount, regulerWorkersCount,
-                            extraWorkersCount, maxWorkersPerFile, terminate, waitingObject, ec2, s3, sqs));
-                    workersThreads.add(workersThread);
-                    workersThreadCount++;
-                    workersThread.setName("Manage-Workers-Thread");
-                    Constants.printDEBUG("DEBUG MANAGER: Creating Manage-workers thread. count is: " +workersThreadCount);
-                    workersThread.start();
-                }
+    /**
+     * returns: the ids of the running workers (they keep running when the manager goes down)
+     */
+    private static List<String> listRunningWorkers() {
+        return compute.listWorkers("running");
+    }
 
-                // clientsCount can decrease only on waitingObject synchronization
-                while (clientsThreadCount > (filesCount.get() + INITIAL_THREADS)  && clientsThreadCount > 1) {
-                    Thread toInterrupt = clientsThreads.poll();
-                    clientsThreadCount--;
-                    Constants.printDEBUG("DEBUG MANAGER: interrupting Manage-clients thread");
-                    toInterrupt.interrupt();
-                }
+    /**
+     * Terminates all the workers of the fleet, including the stopped ones in the warm pool.
+     */
+    private static void terminateAllWorkers() {
+        List<String> workerIds = new LinkedList<>();
+        for (String state : new String[]{"pending", "running", "stopping", "stopped"}) {
+            workerIds.addAll(compute.listWorkers(state));
+        }
+        compute.terminateWorkers(workerIds);
+        Constants.printDEBUG("DEBUG MANAGER: " + workerIds.size() + " workers terminated");
+    }
 
-                // workersCount can decrease only on waitingObject synchronization
-                while (workersThreadCount > (regulerWorkersCount.get() + INITIAL_THREADS) && workersThreadCount > 1) {
-                    Thread toInterrupt = workersThreads.poll();
-                    workersThreadCount--;
-                    Constants.printDEBUG("DEBUG MANAGER: interrupting Manage-workers thread");
-                    toInterrupt.interrupt();
-                }
-            }
+    /**
+     * params: args - "local" to run the workers as local processes (see LocalProcessProvider)
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 0 && args[0].equals(Constants.LOCAL_WORKER_ARG)) {
+            Constants.LOCAL_WORKERS = true;
         }
+        initialConfigurations(Constants.DEBUG_MODE || Constants.LOCAL_WORKERS);
+        recoverState();
+
+        //launch first worker! (unless workers of the previous manager are still running)
+        List<String> runningWorkers = clientsInfo.isEmpty() ? new LinkedList<>() : listRunningWorkers();
+        scaler = new ScalingActuator(compute, sqs, runningWorkers.size(), CostPerReviewPolicy.withDefaultPrices());
+        scaler.adopt(runningWorkers);
+        scaler.getWarmPool().adopt(compute.listWorkers("stopped"));
+        scaler.start();
+        regulerWorkersCount.set(Math.max(runningWorkers.size(), 1));
+        scaler.setTarget(regulerWorkersCount.get());
+
+        // from now on the fleet is sized by the backlog, within the bound set by the users n
+        autoscaler = new Autoscaler(sqs, sqs.getURL(Constants.MANAGER_TO_WORKERS_QUEUE), scaler,
+                () -> regulerWorkersCount.get() + extraWorkersCount.get(),
+                completedReviews::get,
+                () -> clientsInfo.values().stream().mapToLong(ClientInfo::getPendingAnnouncedReviews).sum());
+        autoscaler.start();
+
+        Thread.sleep(500);
+
+        // start the consumer pools (INITIAL_THREADS consumers for workers and INITIAL_THREADS for clients),
+        // from now on each pool is resized from its queue depth and its consumers utilization (the workers pool only
+        // hands the results to the results pipeline, it is resized from its queue depth and the pipeline back-pressure)
+        clientsPool = new ConsumerPool("Manage-Clients", sqs.getURL(Constants.CLIENTS_TO_MANAGER_QUEUE), sqs,
+                () -> new ManageClients(clientsInfo, filesCount, regulerWorkersCount, extraWorkersCount,
+                        maxWorkersPerFile, terminate, scaler, ec2, s3, sqs, journal),
+                Manager::isDone, 1, MAX_THREADS_PER_GROUP);
+        workersPool = new ConsumerPool("Manage-Workers", sqs.getURL(Constants.WORKERS_TO_MANAGER_QUEUE), sqs,
+                () -> new ManageWorkers(clientsInfo, filesCount, regulerWorkersCount, extraWorkersCount,
+                        maxWorkersPerFile, terminate, scaler, ec2, s3, sqs, resultsPipeline, journal, completedReviews),
+                Manager::isDone, resultsPipeline::isBackPressured, 1, MAX_THREADS_PER_GROUP);
+        clientsPool.start(INITIAL_THREADS);
+        workersPool.start(INITIAL_THREADS);
+
+        // finish the work that was cut in the middle by the previous manager, and from now on publish the chunks
+        // that are due by time even if no result of their file arrives
+        ManageWorkers outputTicker = new ManageWorkers(clientsInfo, filesCount, regulerWorkersCount, extraWorkersCount,
+                maxWorkersPerFile, terminate, scaler, ec2, s3, sqs, resultsPipeline, journal, completedReviews);
+        outputTicker.finishRecoveredFiles();
+        resultsPipeline.scheduleTick(outputTicker::sealDueChunks, Constants.CHUNK_INTERVAL_MILLIS);
 
         // wait for all clients to be serves (and the workers to finish their jobs)
         Constants.printDEBUG("DEBUG MANAGER: Manager self-destruct in 5");
-        for (Thread thread: clientsThreads) {
-            thread.join();
-        }
+        clientsPool.awaitDone();
         Constants.printDEBUG("DEBUG MANAGER: Manager self-destruct in 4");
-        for (Thread thread: workersThreads) {
-            thread.join();
-        }
+        workersPool.awaitDone();
+        resultsPipeline.shutdown();
+        autoscaler.stop();
+        scaler.stop();
 
-        // all workers are finished, terminate them
+        // get queues (URLs)
+        String M2C_QueueURL = sqs.getURL(Constants.MANAGER_TO_CLIENTS_QUEUE);
+        String C2M_QueueURL = sqs.getURL(Constants.CLIENTS_TO_MANAGER_QUEUE);
+        String W2M_QueueURL = sqs.getURL(Constants.WORKERS_TO_MANAGER_QUEUE);
+        String M2W_QueueURL = sqs.getURL(Constants.MANAGER_TO_WORKERS_QUEUE);
+        long deadline = System.currentTimeMillis() + MAX_SHUTDOWN_WAIT_MILLIS;
+
+        // all clients were served, wait for the workers to confirm they are drained and terminate them
+        drainWorkers(W2M_QueueURL, deadline);
         List<Instance> instances = ec2.listInstances(false);
         Instance managerInstance = null;
 
         Constants.printDEBUG("Creating statistics");
         createStatistics();
 
+        terminateAllWorkers();
         for (Instance instance: instances) {
-
             for (Tag tag: instance.getTags()) {
-                if (tag.getValue().equals(Constants.INSTANCE_TAG.WORKER.toString())) {
-                    ec2.terminateEC2Instance(instance.getInstanceId());
-                    Constants.printDEBUG("DEBUG MANAGER: WORKER terminated");
-                }
-                else {
-                    if (tag.getValue().equals(Constants.INSTANCE_TAG.MANAGER.toString())) {
-                        managerInstance = instance;
-                    }
+                if (tag.getValue().equals(Constants.INSTANCE_TAG.MANAGER.toString())) {
+                    managerInstance = instance;
                 }
             }
         }
 
-        // get queues (URLs)
         try {
-            String M2C_QueueURL = sqs.getURL(Constants.MANAGER_TO_CLIENTS_QUEUE);
-            String C2M_QueueURL = sqs.getURL(Constants.CLIENTS_TO_MANAGER_QUEUE);
-            String W2M_QueueURL = sqs.getURL(Constants.WORKERS_TO_MANAGER_QUEUE);
-            String M2W_QueueURL = sqs.getURL(Constants.MANAGER_TO_WORKERS_QUEUE);
+            // let clients collect data, until all of them confirmed they did
+            awaitClientsAcks(C2M_QueueURL, deadline);
 
-            Constants.printDEBUG("let clients collect data, waiting 2 minutes");
-            Thread.sleep(120000); //2 minutes more than enough time for all clients to collect data
+            // all clients were served, the next manager starts clean
+            journal.delete();
 
             Constants.printDEBUG("deleting all queues");
             // delete all queues
@@ -197,6 +219,7 @@ public class Manager {
             sqs.deleteQueue(C2M_QueueURL);
             sqs.deleteQueue(W2M_QueueURL);
             sqs.deleteQueue(M2W_QueueURL);
+            scaler.deleteControlQueues();
 
             Constants.printDEBUG("DEBUG MANAGER: Kaboom");
 
@@ -206,7 +229,7 @@ public class Manager {
         }
         finally {
             // terminate - after this the program must end!
-            if (!Constants.DEBUG_MODE) {
+            if (!Constants.DEBUG_MODE && !Constants.LOCAL_WORKERS && managerInstance != null) {
                 ec2.terminateEC2Instance(managerInstance.getInstanceId());
             }
 
@@ -215,8 +238,68 @@ public class Manager {
 
     }
 
+    /**
+     * Sends a drain message to every worker of the fleet and waits for all of them to confirm they are drained (they
+     * sent back the results of all the reviews they took), or until the deadline passes.
+     * The deadline is checked between receives, so the wait may pass it by one long polling.
+     */
+    private static void drainWorkers(String W2M_QueueURL, long deadline) {
+        int workers = scaler.drainAll();
+
+        Set<String> drainedWorkers = new HashSet<>();
+        while (drainedWorkers.size() < workers && System.currentTimeMillis() < deadline) {
+            List<Message> messages = sqs.receiveMessages(W2M_QueueURL, false, true);
+            for (Message message : messages) {
+                JSONObject msgObj = Constants.validateMessageAndReturnObj(message, Constants.TAGS.WORKER_2_MANAGER_drained, false);
+                if (msgObj != null) {
+                    drainedWorkers.add((String) msgObj.get(Constants.WORKER_ID));
+                }
+            }
+            // results that arrive now are duplicates of results that were already handled
+            if (!messages.isEmpty()) {
+                sqs.safelyDeleteMessages(messages, W2M_QueueURL);
+            }
+        }
+        Constants.printDEBUG("DEBUG MANAGER: " + drainedWorkers.size() + " out of " + workers + " workers are drained");
+    }
+
+    /**
+     * Waits for every finished client to confirm it downloaded its results, or until the deadline passes.
+     * (acks that arrived while the manager was running were already journaled by ManageClients)
+     */
+    private static void awaitClientsAcks(String C2M_QueueURL, long deadline) {
+        Set<String> unacknowledgedClients = journal.getUnacknowledgedClients();
+        while (!unacknowledgedClients.isEmpty() && System.currentTimeMillis() < deadline) {
+            List<Message> messages = sqs.receiveMessages(C2M_QueueURL, false, true);
+            for (Message message : messages) {
+                JSONObject msgObj = Constants.validateMessageAndReturnObj(message, Constants.TAGS.CLIENT_2_MANAGER_ack, false);
+                if (msgObj != null) {
+                    unacknowledgedClients.remove((String) msgObj.get(Constants.SENDER_BUCKET));
+                }
+            }
+            // new clients are declined in termination mode
+            if (!messages.isEmpty()) {
+                sqs.safelyDeleteMessages(messages, C2M_QueueURL);
+            }
+        }
+        Constants.printDEBUG("DEBUG MANAGER: " + unacknowledgedClients.size() + " clients didn't confirm they are done");
+    }
+
+    /**
+     * returns: true when the manager is in termination mode and all the clients were served (a client that only
+     *          announced its files and didn't send any of them doesn't hold the termination)
+     */
+    private static boolean isDone() {
+        return terminate.get() && ClientInfo.areAllServed(clientsInfo);
+    }
+
     private static void createStatistics() {
-        String statistics = ec2.getStat();
+        String statistics = ec2.getStat() + "\n" + clientsPool.getMetrics() + workersPool.getMetrics()
+                + resultsPipeline.getMetrics()
+                + "METRICS ec2 inventory: describeCalls=" + ec2.getInventory().getDescribeCalls() + "\n"
+                + ec2.getLaunchTracker().getMetrics()
+                + scaler.getThroughput().getMetrics()
+                + scaler.getStartup().getMetrics();
 
         String fileName = "StatisticsFile";
         File statFile = new File(fileName);
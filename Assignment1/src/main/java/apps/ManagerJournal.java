@@ -0,0 +1,461 @@
+package apps;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Write-ahead journal of the manager's job state.
+ * Every state transition (file registered / dispatched, review completed, chunk published, file uploaded,
+ * client finished) is appended as a single JSON line. Every SNAPSHOT_INTERVAL records the whole state is written
+ * to a snapshot file and the journal is truncated, so recovery reads one snapshot and a bounded journal tail.
+ * The snapshot keeps only the number of completed reviews of every file: the results of a file are written to its
+ * local output file by a single thread, in the order they are journaled, so the completed reviews of the snapshot
+ * are the first lines of that file (see ClientInfo.restoreFile). The ids of the reviews completed since the last
+ * snapshot are kept in the journal tail only.
+ * Every snapshot starts a new generation of the journal (its first record), a journal of an older generation than
+ * the snapshot (a crash between writing the snapshot and truncating the journal) is not replayed.
+ * The records are flushed to the OS when they are appended, and forced to the disk by sync() - before a message that
+ * depends on them is deleted - and with every snapshot.
+ * The journal lives on the manager's disk: it recovers a manager JVM that is restarted on the same instance (after a
+ * crash or a reboot - see user_data.sh), not a manager on a new instance.
+ */
+public class ManagerJournal {
+
+    private static final int SNAPSHOT_INTERVAL = 5000;
+
+    public enum RECORD {
+        FILE_REGISTERED, FILE_DISPATCHED, REVIEW_COMPLETED, CHUNK_PUBLISHED, FILE_UPLOADED, CLIENT_FINISHED,
+        CLIENT_ACKNOWLEDGED, TERMINATE_REQUESTED, JOURNAL_STARTED
+    }
+
+    /** Recovered state of a single input file */
+    public static class FileState {
+        public String outKey;
+        public long totalFileReviews;
+        public boolean isDispatched = false;
+        public boolean isUploaded = false;
+        public int lastChunkIndex = -1;
+        public boolean isLastChunkPublished = false;
+        // the reviews completed up to the last snapshot - the first lines of the local output file
+        public long completedBeforeSnapshot = 0;
+        // the reviews completed since the last snapshot
+        public Set<String> completedReviews = new HashSet<>();
+
+        public long getCompletedCount() {
+            return completedBeforeSnapshot + completedReviews.size();
+        }
+    }
+
+    /** Recovered state of a single client (local application) */
+    public static class ClientState {
+        public int reviewsPerWorker;
+        public int numFiles;
+        public Map<String, FileState> files = new HashMap<>();
+    }
+
+    private String journalPath;
+    private String snapshotPath;
+    private Map<String, ClientState> clients;
+    private Set<String> finishedClients;
+    private Set<String> acknowledgedClients;
+    private boolean isTerminateRequested;
+    private FileOutputStream journalStream;
+    private PrintWriter journal;
+    private long generation;
+    private int recordsSinceSnapshot;
+    private boolean isSynced;
+
+    /**
+     * Loads the last snapshot, replays the journal on top of it and opens the journal for appending.
+     * params: journalPath, snapshotPath
+     */
+    public ManagerJournal(String journalPath, String snapshotPath) throws IOException {
+        this.journalPath = journalPath;
+        this.snapshotPath = snapshotPath;
+        this.clients = new HashMap<>();
+        this.finishedClients = new HashSet<>();
+        this.acknowledgedClients = new HashSet<>();
+        this.isTerminateRequested = false;
+        this.generation = 0;
+        this.recordsSinceSnapshot = 0;
+        this.isSynced = true;
+
+        loadSnapshot();
+        boolean isReplayed = replayJournal();
+        openJournal(isReplayed);
+    }
+
+    /**
+     * returns: the state of the clients that weren't finished when the manager went down (bucket -> state)
+     */
+    public synchronized Map<String, ClientState> getRecoveredClients() {
+        return clients;
+    }
+
+    public synchronized boolean isClientFinished(String bucket) {
+        return finishedClients.contains(bucket);
+    }
+
+    /**
+     * returns: the clients that were finished but didn't confirm yet they downloaded their results
+     */
+    public synchronized Set<String> getUnacknowledgedClients() {
+        Set<String> unacknowledged = new HashSet<>(finishedClients);
+        unacknowledged.removeAll(acknowledgedClients);
+        return unacknowledged;
+    }
+
+    public synchronized boolean isTerminateRequested() {
+        return isTerminateRequested;
+    }
+
+    public synchronized boolean isFileDispatched(String bucket, String inKey) {
+        FileState file = getFile(bucket, inKey);
+        return file != null && file.isDispatched;
+    }
+
+    // ********************************* state transitions ***************************************
+
+    public void fileRegistered(String bucket, String inKey, String outKey, long totalFileReviews,
+                               int reviewsPerWorker, int numFiles) {
+        JSONObject record = newRecord(RECORD.FILE_REGISTERED, bucket, inKey);
+        record.put(Constants.OUT_KEY, outKey);
+        record.put(Constants.TOTAL_FILE_REVIEWS, totalFileReviews);
+        record.put(Constants.REVIEWS_PER_WORKER, reviewsPerWorker);
+        record.put(Constants.NUM_FILES, numFiles);
+        append(record);
+    }
+
+    public void fileDispatched(String bucket, String inKey) {
+        append(newRecord(RECORD.FILE_DISPATCHED, bucket, inKey));
+    }
+
+    public void reviewCompleted(String bucket, String inKey, String reviewId) {
+        JSONObject record = newRecord(RECORD.REVIEW_COMPLETED, bucket, inKey);
+        record.put(Constants.REVIEW_ID, reviewId);
+        append(record);
+    }
+
+    public void chunkPublished(String bucket, String inKey, int chunkIndex, boolean isLastChunk) {
+        JSONObject record = newRecord(RECORD.CHUNK_PUBLISHED, bucket, inKey);
+        record.put(Constants.CHUNK_INDEX, chunkIndex);
+        record.put(Constants.IS_LAST_CHUNK, isLastChunk);
+        append(record);
+    }
+
+    public void fileUploaded(String bucket, String inKey) {
+        append(newRecord(RECORD.FILE_UPLOADED, bucket, inKey));
+    }
+
+    public void clientFinished(String bucket) {
+        append(newRecord(RECORD.CLIENT_FINISHED, bucket, null));
+    }
+
+    public void clientAcknowledged(String bucket) {
+        append(newRecord(RECORD.CLIENT_ACKNOWLEDGED, bucket, null));
+    }
+
+    public void terminateRequested() {
+        append(newRecord(RECORD.TERMINATE_REQUESTED, null, null));
+    }
+
+    /**
+     * Forces the appended records to the disk. Called before deleting a message whose handling was journaled, so
+     * the records of many messages are forced together.
+     */
+    public synchronized void sync() {
+        if (isSynced) {
+            return;
+        }
+        journal.flush();
+        try {
+            journalStream.getFD().sync();
+            isSynced = true;
+        } catch (IOException e) {
+            // the records are still in the OS, only a crash of the instance loses them
+            System.err.println(e);
+        }
+    }
+
+    public synchronized void close() {
+        sync();
+        journal.close();
+    }
+
+    /**
+     * Closes the journal and deletes it with the snapshot. Called once all the clients were served,
+     * so the next manager starts with a clean state.
+     */
+    public synchronized void delete() {
+        journal.close();
+        new File(journalPath).delete();
+        new File(snapshotPath).delete();
+    }
+
+    // ********************************* internals ***************************************
+
+    private JSONObject newRecord(RECORD type, String bucket, String inKey) {
+        JSONObject record = new JSONObject();
+        record.put(Constants.RECORD_TYPE, type.toString());
+        record.put(Constants.BUCKET, bucket);
+        record.put(Constants.IN_KEY, inKey);
+        return record;
+    }
+
+    private synchronized void append(JSONObject record) {
+        apply(record);
+        journal.println(record.toJSONString());
+        journal.flush();
+        isSynced = false;
+
+        recordsSinceSnapshot++;
+        if (recordsSinceSnapshot >= SNAPSHOT_INTERVAL) {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                // keep journaling, the next interval will try again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private FileState getFile(String bucket, String inKey) {
+        ClientState client = clients.get(bucket);
+        return client == null ? null : client.files.get(inKey);
+    }
+
+    /** Applies a single record to the in memory state */
+    private void apply(JSONObject record) {
+        RECORD type = RECORD.valueOf((String) record.get(Constants.RECORD_TYPE));
+        String bucket = (String) record.get(Constants.BUCKET);
+        String inKey = (String) record.get(Constants.IN_KEY);
+
+        if (type == RECORD.JOURNAL_STARTED) {
+            return;
+        }
+        if (type == RECORD.TERMINATE_REQUESTED) {
+            isTerminateRequested = true;
+            return;
+        }
+        if (type == RECORD.CLIENT_ACKNOWLEDGED) {
+            acknowledgedClients.add(bucket);
+            return;
+        }
+        if (type == RECORD.CLIENT_FINISHED) {
+            clients.remove(bucket);
+            finishedClients.add(bucket);
+            return;
+        }
+        if (finishedClients.contains(bucket)) {
+            return;
+        }
+
+        if (type == RECORD.FILE_REGISTERED) {
+            ClientState client = clients.get(bucket);
+            if (client == null) {
+                client = new ClientState();
+                client.reviewsPerWorker = ((Number) record.get(Constants.REVIEWS_PER_WORKER)).intValue();
+                client.numFiles = ((Number) record.get(Constants.NUM_FILES)).intValue();
+                clients.put(bucket, client);
+            }
+            if (!client.files.containsKey(inKey)) {
+                FileState file = new FileState();
+                file.outKey = (String) record.get(Constants.OUT_KEY);
+                file.totalFileReviews = ((Number) record.get(Constants.TOTAL_FILE_REVIEWS)).longValue();
+                client.files.put(inKey, file);
+            }
+            return;
+        }
+
+        FileState file = getFile(bucket, inKey);
+        if (file == null) {
+            return;
+        }
+        switch (type) {
+            case FILE_DISPATCHED:
+                file.isDispatched = true;
+                break;
+            case REVIEW_COMPLETED:
+                if (!file.isUploaded)
+                    file.completedReviews.add((String) record.get(Constants.REVIEW_ID));
+                break;
+            case CHUNK_PUBLISHED:
+                file.lastChunkIndex = Math.max(file.lastChunkIndex, ((Number) record.get(Constants.CHUNK_INDEX)).intValue());
+                file.isLastChunkPublished = file.isLastChunkPublished || (Boolean) record.get(Constants.IS_LAST_CHUNK);
+                break;
+            case FILE_UPLOADED:
+                // the completed reviews of an uploaded file are not needed anymore
+                file.isUploaded = true;
+                file.completedBeforeSnapshot = 0;
+                file.completedReviews = new HashSet<>();
+                break;
+        }
+    }
+
+    /**
+     * Opens the journal for appending: a journal that was replayed is continued, otherwise a new journal of the
+     * current generation is started.
+     */
+    private void openJournal(boolean append) throws IOException {
+        journalStream = new FileOutputStream(journalPath, append);
+        journal = new PrintWriter(new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8)));
+        if (!append) {
+            JSONObject record = newRecord(RECORD.JOURNAL_STARTED, null, null);
+            record.put(Constants.GENERATION, generation);
+            journal.println(record.toJSONString());
+            isSynced = false;
+            sync();
+        }
+    }
+
+    /**
+     * returns: true if the journal was replayed, false if there is no journal or it is older than the snapshot
+     */
+    private boolean replayJournal() throws IOException {
+        if (!new File(journalPath).isFile()) {
+            return false;
+        }
+        JSONParser parser = new JSONParser();
+        BufferedReader reader = new BufferedReader(new FileReader(journalPath));
+        try {
+            String line;
+            boolean isFirst = true;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JSONObject record = (JSONObject) parser.parse(line);
+                    if (isFirst && RECORD.JOURNAL_STARTED.toString().equals(record.get(Constants.RECORD_TYPE))
+                            && ((Number) record.get(Constants.GENERATION)).longValue() < generation) {
+                        // the records of this journal are already in the snapshot
+                        Constants.printDEBUG("JOURNAL: skipping a journal that is older than the snapshot");
+                        return false;
+                    }
+                    isFirst = false;
+                    apply(record);
+                    recordsSinceSnapshot++;
+                } catch (ParseException e) {
+                    // a torn last line (crash in the middle of a write) - everything before it was applied
+                    Constants.printDEBUG("JOURNAL: skipping unreadable record: " + line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return true;
+    }
+
+    /** Writes the state to a temporary file, replaces the snapshot with it and truncates the journal */
+    private void writeSnapshot() throws IOException {
+        JSONObject snapshot = new JSONObject();
+        JSONObject clientsObj = new JSONObject();
+        for (Map.Entry<String, ClientState> clientEntry : clients.entrySet()) {
+            ClientState client = clientEntry.getValue();
+            JSONObject clientObj = new JSONObject();
+            clientObj.put(Constants.REVIEWS_PER_WORKER, client.reviewsPerWorker);
+            clientObj.put(Constants.NUM_FILES, client.numFiles);
+
+            JSONObject filesObj = new JSONObject();
+            for (Map.Entry<String, FileState> fileEntry : client.files.entrySet()) {
+                FileState file = fileEntry.getValue();
+                JSONObject fileObj = new JSONObject();
+                fileObj.put(Constants.OUT_KEY, file.outKey);
+                fileObj.put(Constants.TOTAL_FILE_REVIEWS, file.totalFileReviews);
+                fileObj.put(Constants.IS_DISPATCHED, file.isDispatched);
+                fileObj.put(Constants.IS_UPLOADED, file.isUploaded);
+                fileObj.put(Constants.CHUNK_INDEX, file.lastChunkIndex);
+                fileObj.put(Constants.IS_LAST_CHUNK, file.isLastChunkPublished);
+                fileObj.put(Constants.COMPLETED_COUNT, file.getCompletedCount());
+                filesObj.put(fileEntry.getKey(), fileObj);
+            }
+            clientObj.put(Constants.FILES, filesObj);
+            clientsObj.put(clientEntry.getKey(), clientObj);
+        }
+        snapshot.put(Constants.CLIENTS, clientsObj);
+        JSONArray finished = new JSONArray();
+        finished.addAll(finishedClients);
+        snapshot.put(Constants.FINISHED_CLIENTS, finished);
+        JSONArray acknowledged = new JSONArray();
+        acknowledged.addAll(acknowledgedClients);
+        snapshot.put(Constants.ACKNOWLEDGED_CLIENTS, acknowledged);
+        snapshot.put(Constants.TERMINATE, isTerminateRequested);
+        snapshot.put(Constants.GENERATION, generation + 1);
+
+        String tmpPath = snapshotPath + ".tmp";
+        try (FileOutputStream out = new FileOutputStream(tmpPath)) {
+            out.write(snapshot.toJSONString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(Paths.get(tmpPath), Paths.get(snapshotPath), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        // the reviews completed so far are counted by the snapshot from now on
+        for (ClientState client : clients.values()) {
+            for (FileState file : client.files.values()) {
+                file.completedBeforeSnapshot = file.getCompletedCount();
+                file.completedReviews = new HashSet<>();
+            }
+        }
+        generation++;
+        journal.close();
+        openJournal(false);
+        recordsSinceSnapshot = 0;
+        Constants.printDEBUG("JOURNAL: snapshot written");
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!new File(snapshotPath).isFile()) {
+            return;
+        }
+        JSONObject snapshot;
+        try {
+            snapshot = (JSONObject) new JSONParser().parse(new String(Files.readAllBytes(Paths.get(snapshotPath))));
+        } catch (ParseException e) {
+            throw new IOException("Can't parse the manager snapshot " + snapshotPath);
+        }
+
+        for (Object bucket : (JSONArray) snapshot.get(Constants.FINISHED_CLIENTS)) {
+            finishedClients.add((String) bucket);
+        }
+        for (Object bucket : (JSONArray) snapshot.get(Constants.ACKNOWLEDGED_CLIENTS)) {
+            acknowledgedClients.add((String) bucket);
+        }
+
+        isTerminateRequested = (Boolean) snapshot.get(Constants.TERMINATE);
+        generation = ((Number) snapshot.getOrDefault(Constants.GENERATION, 0L)).longValue();
+
+        JSONObject clientsObj = (JSONObject) snapshot.get(Constants.CLIENTS);
+        for (Object clientKey : clientsObj.keySet()) {
+            JSONObject clientObj = (JSONObject) clientsObj.get(clientKey);
+            ClientState client = new ClientState();
+            client.reviewsPerWorker = ((Long) clientObj.get(Constants.REVIEWS_PER_WORKER)).intValue();
+            client.numFiles = ((Long) clientObj.get(Constants.NUM_FILES)).intValue();
+
+            JSONObject filesObj = (JSONObject) clientObj.get(Constants.FILES);
+            for (Object fileKey : filesObj.keySet()) {
+                JSONObject fileObj = (JSONObject) filesObj.get(fileKey);
+                FileState file = new FileState();
+                file.outKey = (String) fileObj.get(Constants.OUT_KEY);
+                file.totalFileReviews = (Long) fileObj.get(Constants.TOTAL_FILE_REVIEWS);
+                file.isDispatched = (Boolean) fileObj.get(Constants.IS_DISPATCHED);
+                file.isUploaded = (Boolean) fileObj.get(Constants.IS_UPLOADED);
+                file.lastChunkIndex = ((Long) fileObj.get(Constants.CHUNK_INDEX)).intValue();
+                file.isLastChunkPublished = (Boolean) fileObj.get(Constants.IS_LAST_CHUNK);
+                file.completedBeforeSnapshot = (Long) fileObj.get(Constants.COMPLETED_COUNT);
+                client.files.put((String) fileKey, file);
+            }
+            clients.put((String) clientKey, client);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package apps;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.util.List;
+
+/**
+ * A consumer of an SQS queue that is run by a ConsumerPool.
+ * The pool calls receive and handle in a loop, so a consumer is never interrupted in the middle of its work.
+ */
+public interface QueueConsumer {
+
+    /** Receive the next batch of messages (may block on long polling and return an empty list) */
+    List<Message> receive();
+
+    /** Handle (and delete) a received batch */
+    void handle(List<Message> messages);
+}
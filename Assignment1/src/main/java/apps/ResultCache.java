@@ -0,0 +1,84 @@
+package apps;
+
+import handlers.ReviewAnalysis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * The analysis results of the recent reviews of a worker, by their text: short reviews repeat a lot ("Five Stars",
+ * "Great product!"), and a repeated review is answered from here instead of being annotated again.
+ * The key is an MD5 hash of the engine and the normalized text (whitespace runs collapsed, trimmed - the case is
+ * kept, the entities and the sentiment depend on it), so a long review doesn't keep its text in memory, and every
+ * engine (and quality profile - see WorkerEngines) has its own results. The value is the sentiment and
+ * the entities; the sarcasm depends on the rating of every review, so it isn't cached.
+ * Only exact results of reviews up to MAX_REVIEW_CHARS are cached (an approximate result depends on the time it was
+ * given), and the cache keeps the maxEntries most recently used results (LRU).
+ * Shared by all the analysis threads of a worker.
+ */
+public class ResultCache {
+
+    private static final int MAX_REVIEW_CHARS = 1000;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final int maxEntries;
+    private final Map<UUID, ReviewAnalysis> results;
+    private long lookups;
+    private long hits;
+
+    public ResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.results = new LinkedHashMap<UUID, ReviewAnalysis>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, ReviewAnalysis> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+        this.lookups = 0;
+        this.hits = 0;
+    }
+
+    /**
+     * returns: the key of a review analyzed by the given engine, or null if it is too long to be cached
+     */
+    public static UUID keyOf(String engine, String review) {
+        if (review == null || review.length() > MAX_REVIEW_CHARS) {
+            return null;
+        }
+        String normalized = engine + '\n' + WHITESPACE.matcher(review.trim()).replaceAll(" ");
+        return UUID.nameUUIDFromBytes(normalized.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * returns: the cached result of the review with this key, or null (a null key is never cached)
+     */
+    public synchronized ReviewAnalysis get(UUID key) {
+        lookups++;
+        ReviewAnalysis result = key == null ? null : results.get(key);
+        if (result != null) {
+            hits++;
+        }
+        return result;
+    }
+
+    public synchronized void put(UUID key, ReviewAnalysis result) {
+        if (key != null && !result.isApproximate() && maxEntries > 0) {
+            results.put(key, result);
+        }
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized double getHitRate() {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,121 @@
+package apps;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages that handle the workers results after they were received (by the Manage-Workers consumer pool):
+ *      decode - parses the message and finds its client,
+ *      apply  - updates the file state (local output file, analytics, counters, journal), routed by file,
+ *      output - uploads chunks and output files to S3 and messages the clients, routed by file,
+ *      ack    - deletes the handled messages from the queue.
+ * The stages are connected by bounded queues, so a slow S3 upload holds back only the output stage while the
+ * results keep being applied and acknowledged (before their visibility timeout expires).
+ * Every METRICS_INTERVAL_SECONDS the queue depth and service time of every stage are reported.
+ * Periodic work on the results (sealing the chunks that are due by time) is submitted to the stages by a tick thread
+ * (see scheduleTick).
+ */
+public class ResultsPipeline {
+
+    private static final int METRICS_INTERVAL_SECONDS = 10;
+    private static final double BACK_PRESSURE_FILL = 0.8;
+
+    private Stage decodeStage;
+    private Stage applyStage;
+    private Stage outputStage;
+    private Stage ackStage;
+    private ScheduledExecutorService reporter;
+    private ScheduledExecutorService ticker;
+
+    /**
+     * params: threads per stage (applyThreads is the number of file shards), capacity - max tasks waiting per
+     *         stage thread
+     */
+    public ResultsPipeline(int decodeThreads, int applyThreads, int outputThreads, int ackThreads, int capacity) {
+        this.decodeStage = new Stage("Decode", decodeThreads, capacity);
+        this.applyStage = new Stage("Apply", applyThreads, capacity);
+        this.outputStage = new Stage("Output", outputThreads, capacity);
+        this.ackStage = new Stage("Ack", ackThreads, capacity);
+
+        this.reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("Results-Pipeline-Metrics-Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> Constants.printDEBUG(getMetrics()),
+                METRICS_INTERVAL_SECONDS, METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        // (a tick may block on a full stage, so it doesn't share the metrics thread)
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("Results-Pipeline-Tick-Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the task every periodMillis on the tick thread, until the pipeline is shut down. The task should only
+     * submit work to the stages.
+     */
+    public void scheduleTick(Runnable task, long periodMillis) {
+        ticker.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                // a task that throws is not run again by the executor
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Stage getDecodeStage() {
+        return decodeStage;
+    }
+
+    public Stage getApplyStage() {
+        return applyStage;
+    }
+
+    public Stage getOutputStage() {
+        return outputStage;
+    }
+
+    public Stage getAckStage() {
+        return ackStage;
+    }
+
+    /**
+     * returns: true if a stage is close to blocking the one before it (an inbox is BACK_PRESSURE_FILL full), then
+     *          receiving more results only makes them wait in the pipeline
+     */
+    public boolean isBackPressured() {
+        for (Stage stage : new Stage[]{decodeStage, applyStage, outputStage, ackStage}) {
+            if (stage.getMaxFill() >= BACK_PRESSURE_FILL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** returns: the queue depth and service time of every stage, one per line */
+    public String getMetrics() {
+        return decodeStage.getMetrics() + "\n" + applyStage.getMetrics() + "\n"
+                + outputStage.getMetrics() + "\n" + ackStage.getMetrics() + "\n";
+    }
+
+    /**
+     * Stops the ticks, drains the stages in order (every stage only submits to the stages after it) and stops them.
+     */
+    public void shutdown() throws InterruptedException {
+        ticker.shutdownNow();
+        ticker.awaitTermination(METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        decodeStage.shutdown();
+        applyStage.shutdown();
+        outputStage.shutdown();
+        ackStage.shutdown();
+        reporter.shutdownNow();
+    }
+}
@@ -0,0 +1,215 @@
+package apps;
+
+import com.amazonaws.services.sqs.model.Message;
+import handlers.ReviewAnalysis;
+import handlers.SQSHandler;
+import handlers.SentimentEngine;
+import messages.Worker2Manager;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An analysis thread of a worker: takes reviews from the worker's queue (filled by the receive loop of
+ * MainWorkerClass), analyzes them, sends the results to the manager and deletes the reviews from the SQS queue.
+ * The reviews that are waiting in the queue are taken together (up to ANALYSIS_BATCH_SIZE), annotated in one batch
+ * and deleted together. The reviews may wait in the queue and in the batch longer than the visibility timeout they
+ * were received with, so when a batch starts their visibility is extended by VISIBILITY_TIMEOUT_SECONDS for every
+ * review of the batch, and a review whose timeout already passed is left to the worker that receives it again.
+ * Every review is analyzed by the SentimentEngine and the QualityProfile its job chose, a review whose profile is
+ * still loading is left in the SQS queue and received again after MODELS_LOADING_RETRY_SECONDS, so an analysis thread
+ * never holds it while the models load. Every thread has its own
+ * SentimentAnalysisHandlers (its own pipelines - see WorkerEngines), the loaded annotators are shared (see
+ * AnnotatorLoader). A review whose text was already analyzed by this worker is answered from the ResultCache.
+ */
+public class ReviewAnalyzer implements Runnable {
+
+    /** Put in the queue once for every thread, to end it */
+    public static final Message STOP = new Message();
+
+    private BlockingQueue<Message> reviews;
+    private WorkerEngines engines;
+    private ResultCache cache;
+    private SQSHandler sqs;
+    private String M2W_QueueURL;
+    private String W2M_QueueURL;
+    private ThroughputReporter reporter;
+    private int annotationThreads;
+
+    /**
+     * params: engines - the engines of this thread, by the engine and the profile the jobs choose,
+     *         annotationThreads - the threads CoreNLP annotates a batch of this thread with
+     */
+    public ReviewAnalyzer(BlockingQueue<Message> reviews, WorkerEngines engines, ResultCache cache,
+                          SQSHandler sqs, String M2W_QueueURL, String W2M_QueueURL, ThroughputReporter reporter,
+                          int annotationThreads) {
+        this.reviews = reviews;
+        this.engines = engines;
+        this.cache = cache;
+        this.sqs = sqs;
+        this.M2W_QueueURL = M2W_QueueURL;
+        this.W2M_QueueURL = W2M_QueueURL;
+        this.reporter = reporter;
+        this.annotationThreads = annotationThreads;
+    }
+
+    @Override
+    public void run() {
+        List<Message> batch = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped) {
+            // the reviews that are waiting are analyzed together, up to ANALYSIS_BATCH_SIZE
+            batch.clear();
+            try {
+                batch.add(reviews.take());
+                reviews.drainTo(batch, Constants.ANALYSIS_BATCH_SIZE - 1);
+                stopped = removeStops(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            List<Message> toAnalyze = batch;
+            try {
+                toAnalyze = sqs.changeVisibility(batch, M2W_QueueURL,
+                        Constants.VISIBILITY_TIMEOUT_SECONDS * batch.size());
+                if (toAnalyze.size() < batch.size()) {
+                    Constants.printDEBUG("DEBUG WORKER: " + (batch.size() - toAnalyze.size()) +
+                            " reviews waited past their visibility timeout, left to be received again");
+                }
+                if (toAnalyze.isEmpty()) {
+                    continue;
+                }
+                List<Message> deferred = analyze(toAnalyze);
+                if (!deferred.isEmpty()) {
+                    sqs.changeVisibility(deferred, M2W_QueueURL, Constants.MODELS_LOADING_RETRY_SECONDS);
+                    Constants.printDEBUG("DEBUG WORKER: " + deferred.size() +
+                            " reviews wait for the models of their profile, left to be received again");
+                    toAnalyze = new ArrayList<>(toAnalyze);
+                    toAnalyze.removeAll(deferred);
+                }
+                sqs.deleteMessages(toAnalyze, M2W_QueueURL);
+            }
+            catch (Exception e) {
+                // the reviews are not deleted, they are received again after their visibility timeout
+                Constants.printDEBUG("DEBUG WORKER: failed to analyze " + toAnalyze.size() + " reviews: " + e);
+            }
+        }
+    }
+
+    /**
+     * Removes the STOP messages from the batch, a STOP that was meant for another thread is put back.
+     * returns: true if this thread should stop (after the batch)
+     */
+    private boolean removeStops(List<Message> batch) throws InterruptedException {
+        int stops = 0;
+        Iterator<Message> messages = batch.iterator();
+        while (messages.hasNext()) {
+            if (messages.next() == STOP) {
+                messages.remove();
+                stops++;
+            }
+        }
+        for (int i = 1; i < stops; i++) {
+            reviews.put(STOP);
+        }
+        return stops > 0;
+    }
+
+    /**
+     * Analyzes the reviews of the batch and sends their results to the manager.
+     * returns: the reviews that were not analyzed, since the models of their profile are still loading
+     */
+    private List<Message> analyze(List<Message> batch) {
+        long startTime = System.currentTimeMillis();
+        List<JSONObject> msgObjs = new ArrayList<>();
+        for (Message managerMsg : batch) {
+            msgObjs.add(Constants.validateMessageAndReturnObj(managerMsg, Constants.TAGS.MANAGER_2_WORKER, true));
+        }
+
+        // the reviews whose text was already analyzed are answered from the cache, the rest are annotated together
+        // by the engine and the profile their job chose (one annotation pass for both the sentiment and the entities)
+        ReviewAnalysis[] analyses = new ReviewAnalysis[batch.size()];
+        UUID[] keys = new UUID[batch.size()];
+        List<Integer> misses = new ArrayList<>();
+        Map<SentimentEngine, List<Integer>> missesByEngine = new LinkedHashMap<>();
+        List<Message> deferred = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            // (missing in the messages of older managers - see WorkerEngines)
+            String engine = (String) msgObjs.get(i).get(Constants.ENGINE);
+            String profile = (String) msgObjs.get(i).get(Constants.PROFILE);
+            keys[i] = ResultCache.keyOf(WorkerEngines.keyOf(engine, profile),
+                    (String) msgObjs.get(i).get(Constants.REVIEW));
+            analyses[i] = cache.get(keys[i]);
+            if (analyses[i] == null) {
+                SentimentEngine missEngine = engines.get(engine, profile);
+                if (missEngine == null) {
+                    deferred.add(batch.get(i));
+                    continue;
+                }
+                misses.add(i);
+                missesByEngine.computeIfAbsent(missEngine, e -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<SentimentEngine, List<Integer>> engineMisses : missesByEngine.entrySet()) {
+            List<String> missedReviews = new ArrayList<>();
+            for (int i : engineMisses.getValue()) {
+                missedReviews.add((String) msgObjs.get(i).get(Constants.REVIEW));
+            }
+            // this thread is one of the worker's analysis threads, the batch is annotated on its share of the cores
+            List<ReviewAnalysis> missedAnalyses = engineMisses.getKey().analyze(missedReviews, annotationThreads);
+            for (int j = 0; j < missedReviews.size(); j++) {
+                int i = engineMisses.getValue().get(j);
+                analyses[i] = missedAnalyses.get(j);
+                cache.put(keys[i], analyses[i]);
+            }
+        }
+        // the time of the batch is of the analyzed reviews, the cache hits are reported with no busy time
+        long busyMillis = misses.isEmpty() ? 0 : (System.currentTimeMillis() - startTime) / misses.size();
+
+        //send messages to manager with results
+        for (int i = 0; i < batch.size(); i++) {
+            JSONObject msgObj = msgObjs.get(i);
+            ReviewAnalysis analysis = analyses[i];
+            if (analysis == null) {
+                continue;
+            }
+            int sentiment = analysis.getSentiment();
+            int rating = ((Long) msgObj.get(Constants.RATING)).intValue();
+            sqs.sendMessage(W2M_QueueURL,new Worker2Manager(
+                    (String) msgObj.get(Constants.IN_BUCKET),
+                    (String) msgObj.get(Constants.IN_KEY),
+                    (String) msgObj.get(Constants.REVIEW_ID),
+                    (String) msgObj.get(Constants.REVIEW),
+                    sentiment,
+                    rating,
+                    analysis.getEntities().toString(),
+                    getIsSarcastic(sentiment, rating),
+                    analysis.isApproximate())
+                    .stringifyUsingJSON());
+            boolean isCacheHit = !misses.contains(i);
+            reporter.reviewDone(isCacheHit ? 0 : busyMillis, isCacheHit);
+        }
+        return deferred;
+    }
+
+    /**
+     * get if the review is sarcastic or not
+     * params: sentiment, ratings
+     * @return if rating is negative {1,2} and sentiment is positive {3,4} return true
+     *         if rating is positive {4,5} and sentiment is negative {0,1} return true
+     *         else return false
+     */
+
+    public static boolean getIsSarcastic(int sentiment, int ratings){
+        return Math.abs((sentiment + 1) - ratings) >= 2;
+    }
+}
@@ -1,9 +1,23 @@
 package apps;
 
 public class RunnableWorker implements Runnable{
+
+    private String workerId;
+
+    public RunnableWorker() {
+        this(null);
+    }
+
+    /**
+     * params: workerId - the id the manager knows the worker by (see EC2Handler.launchWorkers), null for a random one
+     */
+    public RunnableWorker(String workerId) {
+        this.workerId = workerId;
+    }
+
     @Override
     public void run() {
-        String[] args = new String[0];
+        String[] args = workerId == null ? new String[0] : new String[]{workerId};
         try {
             Constants.printDEBUG("Worker: started running");
             MainWorkerClass.main(args);
@@ -0,0 +1,304 @@
+package apps;
+
+import handlers.ComputeProvider;
+import handlers.SQSHandler;
+import messages.Manager2Worker_drain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reconciles the workers fleet to a desired number of workers, in the background.
+ * The manager threads only post the desired number (setTarget never blocks on EC2), and the actuator thread does
+ * the slow EC2 calls (launch / terminate) until the fleet matches the last posted target.
+ * Scale-in never kills a worker in the middle of its work: the actuator picks the slowest workers (by their last
+ * report) and sends each of them a drain message on its own control queue (see Constants.workerControlQueue), the
+ * worker stops taking reviews, finishes the ones it already took and confirms it is drained (see MainWorkerClass),
+ * and only then it leaves the fleet. The drains never go through the workers queue, so its depth counts reviews only.
+ * Workers are brought up and put down through the WarmPool, which resumes stopped workers before launching new ones.
+ * The speed the workers report is kept in a ThroughputTable, which the InstanceTypePolicy uses to pick the type of
+ * new workers, and the time the workers take to be ready is kept in a StartupTable.
+ */
+public class ScalingActuator {
+
+    private static final long RETRY_MILLIS = 5000;
+
+    private WarmPool warmPool;
+    private ThroughputTable throughput;
+    private StartupTable startup;
+    private SQSHandler sqs;
+    private int targetWorkers;
+    private int currentWorkers;
+    private boolean stopped;
+    private List<String> drainedWorkers;      // drained workers, waiting to leave the fleet
+    private Map<String, Double> fleet;        // <worker id, reviews per second of its last report>, can be drained
+    private Set<String> drainingWorkers;      // were sent a drain, until they are ready again (resumed)
+    private Set<String> knownWorkers;         // every worker that has a control queue
+    private Thread actuatorThread;
+
+    /**
+     * params: provider, sqs, currentWorkers - number of workers already running,
+     *         typePolicy - chooses the instance type of new workers
+     */
+    public ScalingActuator(ComputeProvider provider, SQSHandler sqs, int currentWorkers, InstanceTypePolicy typePolicy) {
+        this.throughput = new ThroughputTable();
+        this.startup = new StartupTable();
+        this.warmPool = new WarmPool(provider, typePolicy, throughput, startup);
+        this.sqs = sqs;
+        this.drainedWorkers = new ArrayList<>();
+        this.fleet = new LinkedHashMap<>();
+        this.drainingWorkers = new HashSet<>();
+        this.knownWorkers = new HashSet<>();
+        this.targetWorkers = currentWorkers;
+        this.currentWorkers = currentWorkers;
+        this.stopped = false;
+        this.actuatorThread = new Thread(this::reconcile);
+        this.actuatorThread.setName("Scaling-Actuator-Thread");
+    }
+
+    public void start() {
+        actuatorThread.start();
+    }
+
+    /**
+     * Workers that are already running (left by a previous manager) join the fleet, so they can be drained.
+     */
+    public synchronized void adopt(List<String> workerIds) {
+        for (String workerId : workerIds) {
+            fleet.putIfAbsent(workerId, 0.0);
+            knownWorkers.add(workerId);
+        }
+    }
+
+    /** Posts the desired number of workers, returns right away */
+    public synchronized void setTarget(int targetWorkers) {
+        if (this.targetWorkers != targetWorkers) {
+            Constants.printDEBUG("DEBUG SCALING: target workers " + this.targetWorkers + " -> " + targetWorkers);
+            this.targetWorkers = targetWorkers;
+            notifyAll();
+        }
+    }
+
+    /**
+     * A worker confirmed it is drained (it took a drain message, finished its reviews and stopped), returns right away.
+     * params: workerId - the instance id of the worker
+     */
+    public synchronized void workerDrained(String workerId) {
+        Constants.printDEBUG("DEBUG SCALING: worker " + workerId + " is drained");
+        drainedWorkers.add(workerId);
+        notifyAll();
+    }
+
+    /**
+     * A worker reported its speed, returns right away.
+     * params: workerId, instanceType, reviews - reviews processed since its previous report,
+     *         busyMillis - time spent analyzing the ones that were not answered from the worker's result cache,
+     *         cacheHits - how many of them were answered from the cache
+     */
+    public void workerReported(String workerId, String instanceType, long reviews, long busyMillis, long cacheHits) {
+        throughput.record(instanceType, reviews, busyMillis, cacheHits);
+        synchronized (this) {
+            // (the last report of a drained worker may arrive after its drain was sent), the speed is of the analyzed
+            // reviews only (see ThroughputTable)
+            long misses = reviews - cacheHits;
+            if (workerId != null && misses > 0 && busyMillis > 0 && !drainingWorkers.contains(workerId)) {
+                fleet.put(workerId, misses * 1000.0 / busyMillis);
+                knownWorkers.add(workerId);
+            }
+        }
+    }
+
+    /**
+     * A worker is ready to take reviews, returns right away.
+     * params: workerId, startupPhases - <phase, millis> of its startup
+     */
+    public void workerReady(String workerId, Map<String, Long> startupPhases) {
+        startup.ready(workerId, startupPhases);
+        synchronized (this) {
+            drainingWorkers.remove(workerId);
+            fleet.put(workerId, 0.0);
+            knownWorkers.add(workerId);
+        }
+    }
+
+    public StartupTable getStartup() {
+        return startup;
+    }
+
+    public ThroughputTable getThroughput() {
+        return throughput;
+    }
+
+    public WarmPool getWarmPool() {
+        return warmPool;
+    }
+
+    public synchronized int getTarget() {
+        return targetWorkers;
+    }
+
+    public synchronized int getCurrentWorkers() {
+        return currentWorkers;
+    }
+
+    private void reconcile() {
+        while (true) {
+            int delta;
+            List<String> toRelease;
+            synchronized (this) {
+                while (!stopped && targetWorkers == currentWorkers && drainedWorkers.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                delta = targetWorkers - currentWorkers;
+                toRelease = new ArrayList<>(drainedWorkers);
+                drainedWorkers.clear();
+            }
+
+            // the EC2 calls are made without holding the lock, the target may change meanwhile
+            if (!toRelease.isEmpty()) {
+                warmPool.release(toRelease);
+            }
+            int done = 0;
+            try {
+                if (delta > 0) {
+                    done = launchWorkers(delta);
+                }
+                else if (delta < 0) {
+                    done = -drainWorkers(-delta);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            synchronized (this) {
+                currentWorkers += done;
+                if (done != delta && !stopped) {
+                    // some of the change failed, try again later
+                    try {
+                        wait(RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * returns: number of workers that were brought up, the rest are retried by the next reconcile round
+     */
+    private int launchWorkers(int numWorkers) {
+        return warmPool.acquire(numWorkers);
+    }
+
+    /**
+     * Sends a drain message to each of the numWorkers slowest workers of the fleet (a worker that didn't report yet
+     * is idle, it is the first). The workers are counted out of the fleet right away, and their instances are
+     * terminated when they confirm they are drained (see workerDrained).
+     * returns: number of workers that were sent a drain - less than numWorkers if fewer workers are ready, the rest
+     *          are retried by the next reconcile round
+     */
+    private int drainWorkers(int numWorkers) {
+        List<String> toDrain;
+        synchronized (this) {
+            toDrain = fleet.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(numWorkers)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+        }
+        int drained = sendDrains(toDrain);
+        Constants.printDEBUG("DEBUG SCALING: sent " + drained + " drain messages, to " + toDrain);
+        return drained;
+    }
+
+    /**
+     * Drains every worker of the fleet (the manager is done).
+     * returns: number of workers that were sent a drain
+     */
+    public int drainAll() {
+        List<String> toDrain;
+        synchronized (this) {
+            toDrain = new ArrayList<>(fleet.keySet());
+        }
+        return sendDrains(toDrain);
+    }
+
+    /**
+     * returns: number of workers that were sent a drain
+     */
+    private int sendDrains(List<String> workerIds) {
+        int drained = 0;
+        for (String workerId : workerIds) {
+            if (sendDrain(workerId)) {
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Sends a drain message to the control queue of the worker, and takes the worker out of the fleet.
+     * returns: false if the message wasn't sent (the worker stays in the fleet)
+     */
+    private boolean sendDrain(String workerId) {
+        synchronized (this) {
+            fleet.remove(workerId);
+            drainingWorkers.add(workerId);
+        }
+        try {
+            sqs.sendMessage(sqs.getURL(Constants.workerControlQueue(workerId)),
+                    new Manager2Worker_drain(workerId).stringifyUsingJSON());
+            return true;
+        } catch (Exception e) {
+            Constants.printDEBUG("DEBUG SCALING: failed to drain worker " + workerId + ": " + e);
+            synchronized (this) {
+                drainingWorkers.remove(workerId);
+                fleet.putIfAbsent(workerId, 0.0);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the control queues of all the workers (the manager is done and the workers are terminated).
+     */
+    public void deleteControlQueues() {
+        List<String> workerIds;
+        synchronized (this) {
+            workerIds = new ArrayList<>(knownWorkers);
+        }
+        for (String workerId : workerIds) {
+            try {
+                sqs.deleteQueue(sqs.getURL(Constants.workerControlQueue(workerId)));
+            } catch (Exception e) {
+                Constants.printDEBUG("DEBUG SCALING: failed to delete the control queue of " + workerId + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Stops reconciling (the last target may not be reached) and waits for the actuator thread to end.
+     */
+    public void stop() throws InterruptedException {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (actuatorThread.isAlive()) {
+            actuatorThread.join();
+        }
+    }
+}
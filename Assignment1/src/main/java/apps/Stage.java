@@ -0,0 +1,144 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stage of the manager pipeline (see ResultsPipeline): a fixed set of threads, each with its own bounded inbox.
+ * Tasks are routed to a thread by a key, so all the tasks of a key run on the same thread, in submit order.
+ * (the apply stage routes by (bucket, inKey), so the progress of a file in ClientInfo is confined to a single thread
+ * and is updated without locks)
+ * Every stage measures its queue depth and its service time, so bottlenecks are visible.
+ */
+public class Stage {
+
+    private static final Runnable STOP = () -> {};
+
+    private String name;
+    private int capacity;
+    private List<BlockingQueue<Runnable>> inboxes;
+    private List<Thread> stageThreads;
+    private AtomicLong processedTasks;
+    private AtomicLong serviceNanos;
+
+    /**
+     * params: name - for threads and metrics, numThreads - number of stage threads,
+     *         capacity - max tasks waiting per thread before submit blocks
+     */
+    public Stage(String name, int numThreads, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        this.inboxes = new ArrayList<>();
+        this.stageThreads = new ArrayList<>();
+        this.processedTasks = new AtomicLong(0);
+        this.serviceNanos = new AtomicLong(0);
+
+        for (int i = 0; i < numThreads; i++) {
+            BlockingQueue<Runnable> inbox = new LinkedBlockingQueue<>(capacity);
+            Thread stageThread = new Thread(() -> runStage(inbox));
+            stageThread.setName(name + "-Stage-Thread-" + i);
+            inboxes.add(inbox);
+            stageThreads.add(stageThread);
+            stageThread.start();
+        }
+    }
+
+    private void runStage(BlockingQueue<Runnable> inbox) {
+        while (true) {
+            Runnable task;
+            try {
+                task = inbox.take();
+            } catch (InterruptedException e) {
+                Constants.printDEBUG(name + " stage interrupted, killing it softly");
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            serviceNanos.addAndGet(System.nanoTime() - start);
+            processedTasks.incrementAndGet();
+        }
+    }
+
+    private int threadOf(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % inboxes.size();
+    }
+
+    /**
+     * Hands the task to the thread that owns the key. Blocks while that thread is full (back pressure on the
+     * previous stage).
+     */
+    public void submit(String key, Runnable task) throws InterruptedException {
+        inboxes.get(threadOf(key)).put(task);
+    }
+
+    /**
+     * Hands the task to the thread that owns the file (inBucket, inKey).
+     */
+    public void submit(String inBucket, String inKey, Runnable task) throws InterruptedException {
+        submit(inBucket + "/" + inKey, task);
+    }
+
+    /**
+     * returns: number of tasks waiting in this stage
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Runnable> inbox : inboxes) {
+            depth += inbox.size();
+        }
+        return depth;
+    }
+
+    /**
+     * returns: the fraction of its capacity the fullest inbox uses (1 - a submit to that thread blocks)
+     */
+    public double getMaxFill() {
+        int maxDepth = 0;
+        for (BlockingQueue<Runnable> inbox : inboxes) {
+            maxDepth = Math.max(maxDepth, inbox.size());
+        }
+        return (double) maxDepth / capacity;
+    }
+
+    /**
+     * returns: number of tasks this stage ran so far
+     */
+    public long getProcessedTasks() {
+        return processedTasks.get();
+    }
+
+    /**
+     * returns: average time (in milliseconds) it took to run a task of this stage
+     */
+    public double getAverageServiceMillis() {
+        long processed = processedTasks.get();
+        return processed == 0 ? 0 : serviceNanos.get() / 1e6 / processed;
+    }
+
+    public String getMetrics() {
+        return String.format("METRICS stage %s: queueDepth=%d processed=%d avgServiceMillis=%.2f",
+                name, getQueueDepth(), processedTasks.get(), getAverageServiceMillis());
+    }
+
+    /**
+     * Lets every thread finish the tasks it already received and waits for the stage threads to end.
+     */
+    public void shutdown() throws InterruptedException {
+        for (BlockingQueue<Runnable> inbox : inboxes) {
+            inbox.put(STOP);
+        }
+        for (Thread thread : stageThreads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package apps;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The time a worker spent on every phase of its startup, until it is ready to analyze reviews.
+ * The phases are marked one after the other by the main thread of the worker, so every phase is the time it waited
+ * for that step (the steps that run in the background, like the model loading, show up in the phase that waits for
+ * them).
+ */
+public class StartupProfile {
+
+    private long startTime;
+    private long lastMark;
+    private Map<String, Long> phases;      // <phase, millis>, in order
+
+    /**
+     * params: sinceJvmStart - the first phase ("jvm") is the time since the JVM started, otherwise the profile starts
+     *         now (a debug worker thread runs in the manager's JVM)
+     */
+    public StartupProfile(boolean sinceJvmStart) {
+        long now = System.currentTimeMillis();
+        this.phases = new LinkedHashMap<>();
+        this.startTime = sinceJvmStart ? ManagementFactory.getRuntimeMXBean().getStartTime() : now;
+        this.lastMark = this.startTime;
+        if (sinceJvmStart) {
+            mark("jvm");
+        }
+    }
+
+    /** Ends the current phase */
+    public synchronized void mark(String phase) {
+        long now = System.currentTimeMillis();
+        phases.put(phase, now - lastMark);
+        lastMark = now;
+    }
+
+    /**
+     * returns: the time from the start of the profile to the last mark
+     */
+    public synchronized long getTotalMillis() {
+        return lastMark - startTime;
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StartupProfile{" +
+                "totalMillis=" + getTotalMillis() +
+                ", phases=" + phases +
+                '}';
+    }
+}
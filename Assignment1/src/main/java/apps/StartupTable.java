@@ -0,0 +1,113 @@
+package apps;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The measured time-to-ready of the workers: from the request that brought a worker up (launch of a new instance, or
+ * start of a stopped one - see WarmPool) to the Worker2Manager_ready it sends once it can take reviews.
+ * The time is smoothed per kind of request, and the startup phases the workers report are smoothed too, so it is
+ * visible where the time of the worker itself goes (jvm, queues, models...) - the rest of the request -> ready time
+ * is the boot of the instance.
+ * The workers that were requested and are not ready yet are pending: they are counted in the fleet but don't process
+ * reviews yet. A worker that isn't ready within PENDING_TIMEOUT_MILLIS is not pending anymore.
+ */
+public class StartupTable {
+
+    private static final double TIME_SMOOTHING = 0.3;      // weight of the last worker in the smoothed times
+    private static final long PENDING_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    private Map<String, Long> requestTimes;                 // <worker id, request time> of the pending workers
+    private Map<String, String> requestKinds;               // <worker id, kind> of the pending workers
+    private Map<String, Double> readyMillis;                // <kind, smoothed request -> ready millis>
+    private Map<String, Long> readyWorkers;                 // <kind, number of workers that became ready>
+    private Map<String, Double> phaseMillis;                // <phase, smoothed millis>
+
+    public StartupTable() {
+        this.requestTimes = new HashMap<>();
+        this.requestKinds = new HashMap<>();
+        this.readyMillis = new LinkedHashMap<>();
+        this.readyWorkers = new LinkedHashMap<>();
+        this.phaseMillis = new LinkedHashMap<>();
+    }
+
+    /**
+     * Workers were just requested.
+     * params: kind - "launch" or "start", workerIds
+     */
+    public synchronized void requested(String kind, List<String> workerIds) {
+        long now = System.currentTimeMillis();
+        for (String workerId : workerIds) {
+            requestTimes.put(workerId, now);
+            requestKinds.put(workerId, kind);
+        }
+    }
+
+    /**
+     * A worker is ready.
+     * params: workerId, startupPhases - <phase, millis> as measured by the worker (see StartupProfile)
+     */
+    public synchronized void ready(String workerId, Map<String, Long> startupPhases) {
+        for (Map.Entry<String, Long> phase : startupPhases.entrySet()) {
+            phaseMillis.put(phase.getKey(), smooth(phaseMillis.get(phase.getKey()), phase.getValue()));
+        }
+
+        // a worker that wasn't requested by this manager (a debug worker thread) has no request time
+        Long requestTime = requestTimes.remove(workerId);
+        String kind = requestKinds.remove(workerId);
+        if (requestTime == null) {
+            return;
+        }
+        long millis = System.currentTimeMillis() - requestTime;
+        readyMillis.put(kind, smooth(readyMillis.get(kind), millis));
+        readyWorkers.merge(kind, 1L, Long::sum);
+        Constants.printDEBUG("DEBUG STARTUP: " + kind + " of " + workerId + " took " + millis + "ms to ready "
+                + startupPhases);
+    }
+
+    /**
+     * returns: the number of workers that were requested and are not ready yet
+     */
+    public synchronized int getPendingWorkers() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> pending = requestTimes.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<String, Long> entry = pending.next();
+            if (now - entry.getValue() > PENDING_TIMEOUT_MILLIS) {
+                requestKinds.remove(entry.getKey());
+                pending.remove();
+            }
+        }
+        return requestTimes.size();
+    }
+
+    /**
+     * returns: the smoothed request -> ready time of the given kind, 0 if it wasn't measured yet
+     */
+    public synchronized double getReadyMillis(String kind) {
+        return readyMillis.getOrDefault(kind, 0.0);
+    }
+
+    private static double smooth(Double previous, long millis) {
+        return previous == null ? millis : TIME_SMOOTHING * millis + (1 - TIME_SMOOTHING) * previous;
+    }
+
+    public synchronized String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        for (Map.Entry<String, Double> entry : readyMillis.entrySet()) {
+            metrics.append(String.format("METRICS startup %s: workers=%d readyMillis=%.0f\n",
+                    entry.getKey(), readyWorkers.get(entry.getKey()), entry.getValue()));
+        }
+        if (!phaseMillis.isEmpty()) {
+            metrics.append("METRICS startup phases:");
+            for (Map.Entry<String, Double> entry : phaseMillis.entrySet()) {
+                metrics.append(String.format(" %s=%.0f", entry.getKey(), entry.getValue()));
+            }
+            metrics.append("\n");
+        }
+        return metrics.toString();
+    }
+}
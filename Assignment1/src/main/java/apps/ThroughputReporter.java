@@ -0,0 +1,69 @@
+package apps;
+
+import handlers.SQSHandler;
+import messages.Worker2Manager_report;
+
+/**
+ * Counts the reviews the analysis threads of a worker processed, and sends a Worker2Manager_report every
+ * REPORT_EVERY_REVIEWS reviews (see ThroughputTable).
+ * The busy time is reported per worker: the time the threads spent on the reviews, divided by the number of
+ * threads, so the reported speed is the speed of the whole worker while all of its threads are busy.
+ * The reviews that were answered from the ResultCache are counted too, so the manager sees the hit rate, and they
+ * add no busy time - the reported busy time is of the analyzed reviews only (see ThroughputTable).
+ */
+public class ThroughputReporter {
+
+    private SQSHandler sqs;
+    private String W2M_QueueURL;
+    private String workerId;
+    private String instanceType;
+    private int numThreads;
+    private long processedReviews;
+    private long busyMillis;
+    private long cacheHits;
+
+    public ThroughputReporter(SQSHandler sqs, String W2M_QueueURL, String workerId, String instanceType, int numThreads) {
+        this.sqs = sqs;
+        this.W2M_QueueURL = W2M_QueueURL;
+        this.workerId = workerId;
+        this.instanceType = instanceType;
+        this.numThreads = numThreads;
+        this.processedReviews = 0;
+        this.busyMillis = 0;
+        this.cacheHits = 0;
+    }
+
+    /**
+     * params: busyMillis - the time a thread spent analyzing the review (0 for a cache hit),
+     *         cacheHit - the result was found in the cache
+     */
+    public void reviewDone(long busyMillis, boolean cacheHit) {
+        synchronized (this) {
+            this.processedReviews++;
+            this.busyMillis += busyMillis;
+            if (cacheHit) {
+                this.cacheHits++;
+            }
+            if (processedReviews < Constants.REPORT_EVERY_REVIEWS) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    /** Sends the reviews counted since the last report (if any) */
+    public void flush() {
+        Worker2Manager_report report;
+        synchronized (this) {
+            if (processedReviews == 0) {
+                return;
+            }
+            report = new Worker2Manager_report(workerId, instanceType, processedReviews,
+                    Math.max(busyMillis / numThreads, 1), cacheHits);
+            processedReviews = 0;
+            busyMillis = 0;
+            cacheHits = 0;
+        }
+        sqs.sendMessage(W2M_QueueURL, report.stringifyUsingJSON());
+    }
+}
@@ -0,0 +1,86 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The measured speed (reviews per second of a single worker) of every instance type, built from the reports the
+ * workers send every REPORT_EVERY_REVIEWS reviews (see MainWorkerClass).
+ * The speed is smoothed over the reports, so a burstable instance that ran out of CPU credits pulls the speed of its
+ * type down over time.
+ * The speed is of the reviews the workers analyzed (the cache misses): the reviews a worker answered from its result
+ * cache take no analysis time, they are counted per type apart, for the hit rate.
+ */
+public class ThroughputTable {
+
+    private static final double RATE_SMOOTHING = 0.3;      // weight of the last report in the speed
+
+    private Map<String, Double> reviewsPerSecond;           // <instance type, smoothed reviews per second>
+    private Map<String, Long> processedReviews;             // <instance type, reviews reported so far>
+    private Map<String, Long> cacheHits;                    // <instance type, cache hits reported so far>
+
+    public ThroughputTable() {
+        this.reviewsPerSecond = new LinkedHashMap<>();
+        this.processedReviews = new LinkedHashMap<>();
+        this.cacheHits = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a worker report.
+     * params: instanceType, reviews - reviews processed since the previous report, busyMillis - time spent on them
+     */
+    public void record(String instanceType, long reviews, long busyMillis) {
+        record(instanceType, reviews, busyMillis, 0);
+    }
+
+    /**
+     * Adds a worker report.
+     * params: instanceType, reviews - reviews processed since the previous report,
+     *         busyMillis - time spent analyzing the ones that were not answered from the cache,
+     *         hits - how many of them were answered from the worker's result cache
+     */
+    public synchronized void record(String instanceType, long reviews, long busyMillis, long hits) {
+        if (reviews <= 0) {
+            return;
+        }
+        processedReviews.merge(instanceType, reviews, Long::sum);
+        cacheHits.merge(instanceType, hits, Long::sum);
+
+        // a report of cache hits only says nothing about the speed
+        long misses = reviews - hits;
+        if (misses <= 0 || busyMillis <= 0) {
+            return;
+        }
+        double rate = misses * 1000.0 / busyMillis;
+        Double previous = reviewsPerSecond.get(instanceType);
+        reviewsPerSecond.put(instanceType, previous == null ? rate
+                : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * previous);
+    }
+
+    /**
+     * returns: the reviews per second of a single worker of the given type, 0 if it wasn't measured yet
+     */
+    public synchronized double getReviewsPerSecond(String instanceType) {
+        return reviewsPerSecond.getOrDefault(instanceType, 0.0);
+    }
+
+    public synchronized boolean isMeasured(String instanceType) {
+        return reviewsPerSecond.containsKey(instanceType);
+    }
+
+    public synchronized List<String> getMeasuredTypes() {
+        return new ArrayList<>(reviewsPerSecond.keySet());
+    }
+
+    public synchronized String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        for (Map.Entry<String, Double> entry : reviewsPerSecond.entrySet()) {
+            long reviews = processedReviews.get(entry.getKey());
+            metrics.append(String.format("METRICS throughput %s: reviewsPerSec=%.2f reviews=%d cacheHitRate=%.2f\n",
+                    entry.getKey(), entry.getValue(), reviews, (double) cacheHits.get(entry.getKey()) / reviews));
+        }
+        return metrics.toString();
+    }
+}
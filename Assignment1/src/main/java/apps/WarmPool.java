@@ -0,0 +1,180 @@
+package apps;
+
+import handlers.ComputeProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of stopped workers, that already booted once (installed java, downloaded the jars and loaded the models).
+ * Scaling out resumes workers from the pool first, and launches fresh workers only for the overflow. Scaling in
+ * stops drained workers into the pool, instead of terminating them.
+ * The pool size adapts to the recent demand: it keeps as many workers as the biggest scale-out of the last
+ * DEMAND_WINDOW_MILLIS (up to MAX_WARM_WORKERS), the rest are terminated.
+ * Fresh workers are launched with the instance type chosen by the InstanceTypePolicy (a resumed worker keeps its type).
+ * Every resumed and launched worker is recorded in the StartupTable, until it reports it is ready.
+ * All the calls to the compute provider are made by the caller thread (the ScalingActuator), without the lock.
+ */
+public class WarmPool {
+
+    private static final int MAX_WARM_WORKERS = 5;
+    private static final long DEMAND_WINDOW_MILLIS = 10 * 60 * 1000;
+
+    private ComputeProvider provider;
+    private InstanceTypePolicy typePolicy;
+    private ThroughputTable throughput;
+    private StartupTable startup;
+    private Deque<String> stoppedWorkers;
+    private Deque<long[]> recentScaleOuts;      // <time, number of workers>
+
+    /**
+     * params: provider, typePolicy - chooses the type of the launched workers, throughput - the measured speeds,
+     *         startup - the measured startup times
+     */
+    public WarmPool(ComputeProvider provider, InstanceTypePolicy typePolicy, ThroughputTable throughput,
+                    StartupTable startup) {
+        this.provider = provider;
+        this.typePolicy = typePolicy;
+        this.throughput = throughput;
+        this.startup = startup;
+        this.stoppedWorkers = new LinkedList<>();
+        this.recentScaleOuts = new LinkedList<>();
+    }
+
+    /**
+     * Adds workers that are already stopped (left by a previous manager) to the pool, terminates the ones beyond
+     * its size.
+     */
+    public void adopt(List<String> workerIds) {
+        List<String> toTerminate = new ArrayList<>();
+        synchronized (this) {
+            for (String workerId : workerIds) {
+                if (stoppedWorkers.size() < MAX_WARM_WORKERS) {
+                    stoppedWorkers.add(workerId);
+                } else {
+                    toTerminate.add(workerId);
+                }
+            }
+        }
+        if (!toTerminate.isEmpty()) {
+            provider.terminateWorkers(toTerminate);
+        }
+    }
+
+    /**
+     * Brings up count workers: resumes stopped workers first and launches the rest.
+     * returns: number of workers that were brought up (resumed and launched) - less than count if some of the
+     *          requests failed
+     */
+    public int acquire(int count) {
+        List<String> toResume = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            recentScaleOuts.add(new long[]{now, count});
+            while (toResume.size() < count && !stoppedWorkers.isEmpty()) {
+                toResume.add(stoppedWorkers.poll());
+            }
+        }
+
+        int resumed = 0;
+        if (!toResume.isEmpty()) {
+            // a worker that failed to start is not returned to the pool, the rest of the count is launched
+            List<String> started = provider.startWorkers(toResume);
+            startup.requested("start", started);
+            resumed = started.size();
+        }
+        int launched = 0;
+        if (count > resumed) {
+            // launch the workers of every chosen type together
+            Map<String, Integer> toLaunch = new LinkedHashMap<>();
+            for (int i = resumed; i < count; i++) {
+                toLaunch.merge(typePolicy.chooseType(throughput), 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : toLaunch.entrySet()) {
+                List<String> launchedIds = provider.launchWorkers(entry.getValue(), entry.getKey());
+                startup.requested("launch", launchedIds);
+                launched += launchedIds.size();
+            }
+        }
+        Constants.printDEBUG("DEBUG WARM POOL: resumed " + resumed + " workers, launched " + launched);
+        return resumed + launched;
+    }
+
+    /**
+     * A drained worker left the fleet: stops it into the pool if the pool is below its size, otherwise terminates it.
+     */
+    public void release(String workerId) {
+        release(Collections.singletonList(workerId));
+    }
+
+    /**
+     * Drained workers left the fleet: stops them into the pool while the pool is below its size, terminates the
+     * rest. All of them are stopped in one request, and terminated in one request.
+     */
+    public void release(List<String> workerIds) {
+        List<String> toStop = new ArrayList<>();
+        List<String> toTerminate = new ArrayList<>();
+        synchronized (this) {
+            int targetSize = getTargetSize();
+            for (String workerId : workerIds) {
+                if (stoppedWorkers.size() < targetSize) {
+                    stoppedWorkers.add(workerId);
+                    toStop.add(workerId);
+                } else {
+                    toTerminate.add(workerId);
+                }
+            }
+            toTerminate.addAll(trim());
+        }
+
+        if (!toStop.isEmpty()) {
+            provider.stopWorkers(toStop);
+        }
+        if (!toTerminate.isEmpty()) {
+            provider.terminateWorkers(toTerminate);
+        }
+    }
+
+    /**
+     * returns: the workers beyond the pool size (the demand went down), they are removed from the pool
+     */
+    private List<String> trim() {
+        List<String> toTerminate = new ArrayList<>();
+        int targetSize = getTargetSize();
+        while (stoppedWorkers.size() > targetSize) {
+            toTerminate.add(stoppedWorkers.pollLast());
+        }
+        return toTerminate;
+    }
+
+    /**
+     * returns: the biggest scale-out of the recent demand window (bounded by MAX_WARM_WORKERS)
+     */
+    public synchronized int getTargetSize() {
+        long now = System.currentTimeMillis();
+        while (!recentScaleOuts.isEmpty() && now - recentScaleOuts.peek()[0] > DEMAND_WINDOW_MILLIS) {
+            recentScaleOuts.poll();
+        }
+        long peak = 0;
+        for (long[] scaleOut : recentScaleOuts) {
+            peak = Math.max(peak, scaleOut[1]);
+        }
+        return (int) Math.min(peak, MAX_WARM_WORKERS);
+    }
+
+    public synchronized int size() {
+        return stoppedWorkers.size();
+    }
+
+    /**
+     * returns: the ids of the stopped workers in the pool
+     */
+    public synchronized List<String> getStoppedWorkers() {
+        return new ArrayList<>(stoppedWorkers);
+    }
+}
@@ -0,0 +1,65 @@
+package apps;
+
+import handlers.AnnotatorLoader;
+import handlers.QualityProfile;
+import handlers.SentimentAnalysisHandler;
+import handlers.SentimentEngine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The sentiment engines of an analysis thread, by the engine and the quality profile a job chose (see SentimentEngine
+ * and QualityProfile): the CoreNLP engine has a SentimentAnalysisHandler per profile, the lexicon engine has no
+ * profiles. The handler of the default profile (BALANCED) is created with the thread, after the worker loaded its
+ * annotators. The annotators of another profile start loading in the background when the first review asks for it
+ * (see AnnotatorLoader), and its handler is created once they are loaded - until then there is no engine for its
+ * reviews, so an analysis thread never waits for a model to load. An unknown engine or profile (from an older
+ * manager) is the default one.
+ */
+public class WorkerEngines {
+
+    private SentimentEngine lexicon;
+    private Map<String, SentimentAnalysisHandler> handlers;    // <profile name, CoreNLP engine of the profile>
+
+    /**
+     * params: lexicon - the lexicon engine, stateless, shared by all the threads
+     */
+    public WorkerEngines(SentimentEngine lexicon) {
+        this.lexicon = lexicon;
+        this.handlers = new HashMap<>();
+        this.handlers.put(QualityProfile.BALANCED.getName(), new SentimentAnalysisHandler(QualityProfile.BALANCED));
+    }
+
+    /**
+     * returns: the engine of the given engine name and profile name (either may be null), null if the annotators of
+     *          the profile are still loading
+     */
+    public SentimentEngine get(String engine, String profile) {
+        if (SentimentEngine.LEXICON.equals(engine)) {
+            return lexicon;
+        }
+        QualityProfile qualityProfile = QualityProfile.forName(profile);
+        SentimentAnalysisHandler handler = handlers.get(qualityProfile.getName());
+        if (handler == null) {
+            AnnotatorLoader.preload(qualityProfile.getAnnotators());
+            if (!AnnotatorLoader.isLoaded(qualityProfile.getAnnotators())) {
+                return null;
+            }
+            handler = new SentimentAnalysisHandler(qualityProfile);
+            handlers.put(qualityProfile.getName(), handler);
+        }
+        return handler;
+    }
+
+    /**
+     * returns: the name of the results of the given engine and profile - the reviews with the same name get the same
+     *          result from the same text (see ResultCache)
+     */
+    public static String keyOf(String engine, String profile) {
+        if (SentimentEngine.LEXICON.equals(engine)) {
+            return SentimentEngine.LEXICON;
+        }
+        return SentimentEngine.CORENLP + "." + QualityProfile.forName(profile).getName();
+    }
+}
@@ -0,0 +1,167 @@
+package handlers;
+
+import edu.stanford.nlp.ie.NERClassifierCombiner;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.DefaultPaths;
+import edu.stanford.nlp.pipeline.MorphaAnnotator;
+import edu.stanford.nlp.pipeline.NERCombinerAnnotator;
+import edu.stanford.nlp.pipeline.POSTaggerAnnotator;
+import edu.stanford.nlp.pipeline.ParserAnnotator;
+import edu.stanford.nlp.pipeline.SentimentAnnotator;
+import edu.stanford.nlp.pipeline.TokenizerAnnotator;
+import edu.stanford.nlp.pipeline.WordsToSentencesAnnotator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads the CoreNLP annotators once per JVM, and shares them between the pipelines of all the analysis threads.
+ * StanfordCoreNLP loads the annotators of a pipeline one after the other (and its annotator pool is locked while a
+ * model loads), so the models are loaded here instead, every annotator on its own thread: the startup of a worker
+ * takes about as long as its slowest model (the parser or the NER classifiers) instead of the sum of all of them.
+ * An annotator is loaded by the first call that needs it (preload or getPipeline), and the load time of every
+ * annotator is kept for the startup profile of the worker.
+ * Besides the default annotators there are lighter NER annotators for the quality profiles (see QualityProfile), a
+ * worker preloads the annotators of the default profile only, the annotators of another profile are loaded in the
+ * background once a job asks for it (see WorkerEngines), an annotator that no profile of the worker's jobs uses is
+ * never loaded.
+ */
+public class AnnotatorLoader {
+
+    public static final String NER_FULL = "ner";                   // the default NER of StanfordCoreNLP
+    public static final String NER_BALANCED = "ner.balanced";      // the default models, without SUTime
+    public static final String NER_FAST = "ner.fast";              // the 3 class model only
+
+    private static final Map<String, CompletableFuture<Annotator>> annotators = new HashMap<>();
+    private static final Map<String, Long> loadMillis = new LinkedHashMap<>();
+
+    /**
+     * Starts loading the given annotators in the background (the ones that are not loaded yet), returns right away.
+     */
+    public static synchronized void preload(List<String> names) {
+        for (String name : names) {
+            annotators.computeIfAbsent(name, AnnotatorLoader::startLoading);
+        }
+    }
+
+    /**
+     * returns: true if all the given annotators are loaded (or failed to load), without waiting for them
+     */
+    public static synchronized boolean isLoaded(List<String> names) {
+        for (String name : names) {
+            CompletableFuture<Annotator> annotator = annotators.get(name);
+            if (annotator == null || !annotator.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for all the annotators that were requested so far to be loaded.
+     */
+    public static void awaitLoaded() {
+        List<CompletableFuture<Annotator>> loading;
+        synchronized (AnnotatorLoader.class) {
+            loading = new ArrayList<>(annotators.values());
+        }
+        for (CompletableFuture<Annotator> annotator : loading) {
+            await(annotator);
+        }
+    }
+
+    /**
+     * returns: a pipeline of the given annotators (in this order), after they are loaded
+     */
+    public static AnnotationPipeline getPipeline(String... names) {
+        preload(Arrays.asList(names));
+        AnnotationPipeline pipeline = new AnnotationPipeline();
+        for (String name : names) {
+            CompletableFuture<Annotator> annotator;
+            synchronized (AnnotatorLoader.class) {
+                annotator = annotators.get(name);
+            }
+            pipeline.addAnnotator(await(annotator));
+        }
+        return pipeline;
+    }
+
+    /**
+     * returns: <annotator, load millis> of the annotators that were loaded so far
+     */
+    public static synchronized Map<String, Long> getLoadMillis() {
+        return new LinkedHashMap<>(loadMillis);
+    }
+
+    private static CompletableFuture<Annotator> startLoading(String name) {
+        CompletableFuture<Annotator> annotator = new CompletableFuture<>();
+        Thread loader = new Thread(() -> {
+            long startTime = System.currentTimeMillis();
+            try {
+                annotator.complete(create(name));
+            } catch (Throwable e) {
+                annotator.completeExceptionally(e);
+            }
+            synchronized (AnnotatorLoader.class) {
+                loadMillis.put(name, System.currentTimeMillis() - startTime);
+            }
+        });
+        loader.setName("Annotator-Loader-" + name);
+        loader.setDaemon(true);
+        loader.start();
+        return annotator;
+    }
+
+    private static Annotator await(CompletableFuture<Annotator> annotator) {
+        try {
+            return annotator.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while loading the annotators", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("couldn't load an annotator", e.getCause());
+        }
+    }
+
+    /**
+     * returns: a new annotator, configured like the default StanfordCoreNLP annotator of that name
+     */
+    private static Annotator create(String name) throws Exception {
+        Properties props = new Properties();
+        switch (name) {
+            case "tokenize":
+                return new TokenizerAnnotator(false);
+            case "ssplit":
+                return new WordsToSentencesAnnotator(false);
+            case "pos":
+                return new POSTaggerAnnotator("pos", props);
+            case "lemma":
+                return new MorphaAnnotator(false);
+            case NER_FULL:
+                return new NERCombinerAnnotator(false);
+            case NER_BALANCED:
+                return new NERCombinerAnnotator(new NERClassifierCombiner(true, false,
+                        DefaultPaths.DEFAULT_NER_THREECLASS_MODEL, DefaultPaths.DEFAULT_NER_MUC_MODEL,
+                        DefaultPaths.DEFAULT_NER_CONLL_MODEL), false);
+            case NER_FAST:
+                return new NERCombinerAnnotator(new NERClassifierCombiner(false, false,
+                        DefaultPaths.DEFAULT_NER_THREECLASS_MODEL), false);
+            case "parse":
+                // the sentiment model runs on binarized trees (StanfordCoreNLP sets this when sentiment is asked for)
+                props.setProperty("parse.binaryTrees", "true");
+                return new ParserAnnotator("parse", props);
+            case "sentiment":
+                return new SentimentAnnotator("sentiment", props);
+            default:
+                throw new IllegalArgumentException("unknown annotator: " + name);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package handlers;
+
+import java.util.List;
+
+/**
+ * The compute operations the manager uses to scale its workers fleet.
+ * Workers are identified by an id given by the provider (the instance id on EC2).
+ */
+public interface ComputeProvider {
+
+    /**
+     * Launches fresh workers.
+     * params: count, instanceType - e.g. "t2.large" (see InstanceTypePolicy)
+     * returns: the ids of the launched workers
+     */
+    List<String> launchWorkers(int count, String instanceType);
+
+    /**
+     * Resumes stopped workers.
+     * returns: the ids of the workers that were started
+     */
+    List<String> startWorkers(List<String> workerIds);
+
+    /** Stops workers, so they can be resumed later (see startWorkers) */
+    void stopWorkers(List<String> workerIds);
+
+    void terminateWorkers(List<String> workerIds);
+
+    /**
+     * returns: the ids of the workers in the given state ("running", "stopped", ...)
+     */
+    List<String> listWorkers(String state);
+}
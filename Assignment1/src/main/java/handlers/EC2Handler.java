@@ -4,9 +4,11 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.UUID;
 
 import apps.Constants;
 import apps.RunnableManager;
@@ -34,10 +36,12 @@ import com.amazonaws.services.ec2.model.Tag;
 import org.apache.commons.codec.binary.Base64;
 
 
-public class EC2Handler {
+public class EC2Handler implements ComputeProvider {
 
     private AWSCredentialsProvider credentials;
     private AmazonEC2 ec2;
+    private InstanceInventory inventory;
+    private LaunchTracker launchTracker;
 
     /**
      * For a client - create our credentials file at ~/.aws/credentials
@@ -50,6 +54,8 @@ public class EC2Handler {
                 .withCredentials(credentials)
                 .withRegion(Regions.US_EAST_1)
                 .build();
+        this.inventory = new InstanceInventory(this.ec2);
+        this.launchTracker = new LaunchTracker(this.ec2);
     }
 
     public void createCredentials(boolean isClient) {
@@ -99,6 +105,19 @@ public class EC2Handler {
         return ec2;
     }
 
+    public LaunchTracker getLaunchTracker() {
+        return launchTracker;
+    }
+
+    /**
+     * returns: a tag specification that tags the launched instances with the given tag (in the RunInstances call)
+     */
+    private static TagSpecification typeTag(String tagValue) {
+        return new TagSpecification()
+                .withResourceType(ResourceType.Instance)
+                .withTags(new Tag().withKey(InstanceInventory.TAG_KEY).withValue(tagValue));
+    }
+
     /**
      * launch a manager machine instances
      * params: managerArn with EC2, S3, SQS permissions
@@ -121,17 +140,12 @@ public class EC2Handler {
             RunInstancesRequest runInstanceRequest = new RunInstancesRequest(Constants.AMI, 1, 1)
                     .withIamInstanceProfile(new IamInstanceProfileSpecification().withArn(managerArn.replaceFirst("role", "instance-profile")))
                     .withUserData(userData)
-                    .withInstanceType(InstanceType.T2Small.toString())
-                    .withKeyName(Constants.KEY_PAIR);
+                    .withInstanceType(Constants.MANAGER_INSTANCE_TYPE)
+                    .withKeyName(Constants.KEY_PAIR)
+                    .withTagSpecifications(typeTag(Constants.INSTANCE_TAG.MANAGER.toString()));
             List<Instance> instances = this.ec2.runInstances(runInstanceRequest).getReservation().getInstances();
             Instance manager = instances.get(0);
-
-            // tag the manager with tag manager
-            Tag tag = new Tag().withKey("Type").withValue(Constants.INSTANCE_TAG.MANAGER.toString());
-            CreateTagsRequest createTagsRequest = new CreateTagsRequest()
-                    .withResources(manager.getInstanceId())
-                    .withTags(tag);
-            ec2.createTags(createTagsRequest);
+            inventory.invalidate();
 
             System.out.println("Launch instance: " + manager + ", with tag: " + Constants.INSTANCE_TAG.MANAGER);
             return manager;
@@ -148,6 +162,14 @@ public class EC2Handler {
      * returns: List<Instance> list of machines instances we launched
      */
     public List<Instance> launchWorkers_EC2Instances(int machineCount, String workersArn, String userDataPath) {
+        return launchWorkers_EC2Instances(machineCount, workersArn, userDataPath, Constants.DEFAULT_WORKER_INSTANCE_TYPE);
+    }
+
+    /**
+     * launch workers machine instances of the given type (see launchWorkers_EC2Instances above)
+     */
+    public List<Instance> launchWorkers_EC2Instances(int machineCount, String workersArn, String userDataPath,
+                                                     String instanceType) {
         if(Constants.DEBUG_MODE){
             for (int i = 0; i < machineCount; i++) {
                 Runnable worker = new RunnableWorker();
@@ -166,18 +188,14 @@ public class EC2Handler {
             RunInstancesRequest runInstanceRequest = new RunInstancesRequest(Constants.AMI, machineCount, machineCount)
                     .withIamInstanceProfile(new IamInstanceProfileSpecification().withArn(workersArn.replaceFirst("role", "instance-profile")))
                     .withUserData(userData)
-                    .withInstanceType(InstanceType.T2Large.toString())
-                    .withKeyName(Constants.KEY_PAIR);
+                    .withInstanceType(instanceType)
+                    .withKeyName(Constants.KEY_PAIR)
+                    .withTagSpecifications(typeTag(Constants.INSTANCE_TAG.WORKER.toString()));
+            long requestTime = System.currentTimeMillis();
             List<Instance> instances = this.ec2.runInstances(runInstanceRequest).getReservation().getInstances();
-
-            // tag instances with the given tag
-            for (Instance inst: instances) {
-                Tag tag = new Tag().withKey("Type").withValue(Constants.INSTANCE_TAG.WORKER.toString());
-                CreateTagsRequest createTagsRequest = new CreateTagsRequest()
-                        .withResources(inst.getInstanceId())
-                        .withTags(tag);
-                ec2.createTags(createTagsRequest);
-            }
+            inventory.invalidate();
+            launchTracker.track("launch", instanceIds(instances), requestTime, System.currentTimeMillis());
+            System.out.println("Instance type: " + instanceType);
 
             System.out.println("Launch instances: " + instances);
             System.out.println("You launched: " + instances.size() + " instances" + ", with tag: " + Constants.INSTANCE_TAG.WORKER);
@@ -213,6 +231,7 @@ public class EC2Handler {
                     .get(0)
                     .getPreviousState()
                     .getName();
+            inventory.invalidate();
             System.out.println("The Instance is terminated with id: "+ instanecID);
             return true;
 
@@ -224,7 +243,7 @@ public class EC2Handler {
     }
 
     /**
-     * Go through the list of instances in search of a given tag
+     * Looks for a running (or pending) instance with a given tag in the instances inventory
      * params: ec2, tag
      * returns: True: There is an instance with the requested tag , False: otherwise
      */
@@ -236,106 +255,31 @@ public class EC2Handler {
             return false;
         }
 
-        boolean done = false;   // done = True - when finished going over all the instances.
-        DescribeInstancesRequest instRequest = new DescribeInstancesRequest();
-
+        // a pending instance counts too, it is already on its way up (e.g. a manager started by another client)
         try {
-            while (!done) {
-
-                // Go through all instances
-                DescribeInstancesResult response = this.ec2.describeInstances(instRequest);
-
-                for (Reservation reservation : response.getReservations()) {
-                    for (Instance instance : reservation.getInstances()) {
-
-                        // check instance status - look for a running status
-                        boolean isRunning = instance.getState().getName().equals("running");
-
-                        // if the instance status is pending, then wait for it to turn to running and then test it again
-                        if (!isRunning && instance.getState().getName().equals("pending")) {
-                            System.out.println("pending, trying again");
-                            DescribeInstancesRequest pendingInstRequest = new DescribeInstancesRequest()
-                                    .withInstanceIds(instance.getInstanceId());
-                            DescribeInstancesResult pendingInstResponse = this.ec2.describeInstances(pendingInstRequest);
-                            Instance pendingInstance = pendingInstResponse.getReservations().get(0).getInstances().get(0);
-
-                            while (pendingInstance.getState().getName().equals("pending")) {
-                                pendingInstRequest = new DescribeInstancesRequest()
-                                        .withInstanceIds(instance.getInstanceId());
-                                pendingInstResponse = this.ec2.describeInstances(pendingInstRequest);
-                                pendingInstance = pendingInstResponse.getReservations().get(0).getInstances().get(0);
-                            }
-
-                            System.out.println("now status is: " + pendingInstance.getState().getName());
-                            isRunning = pendingInstance.getState().getName().equals("running");
-                        }
-
-                        if (isRunning) {
-                            Filter filter = new Filter().withName("resource-id").withValues(instance.getInstanceId());
-                            DescribeTagsRequest tagRequest = new DescribeTagsRequest().withFilters(filter);
-                            DescribeTagsResult tagResult = this.ec2.describeTags(tagRequest);
-                            List<TagDescription> tags = tagResult.getTags();
-                            for (TagDescription tagDesc : tags) {
-                                if (tagDesc.getValue().equals(tag.toString()))
-                                    return true;
-                            }
-                        }
-                    }
-                }
-
-                instRequest.setNextToken(response.getNextToken());
-                if (response.getNextToken() == null) {
-                    done = true;
-                }
-            }
+            return !inventory.getInstances(tag.toString(), "pending", "running").isEmpty();
         }
-
         catch (AmazonServiceException ase) {
             printASEException(ase);
+            return false;
         }
-
-        return false;
     }
 
     /**
-     * List all ec2 instances with their status and tags
+     * List the tagged ec2 instances (that are not terminated) with their status and tags
+     * returns: the instances, or null if they couldn't be listed
      * */
     public List<Instance> listInstances(boolean print) {
-        List<Instance> instances = new LinkedList<>();
-        boolean done = false;   // done = True - when finished going over all the instances.
-        DescribeInstancesRequest instRequest = new DescribeInstancesRequest();
-
         try {
-            while (!done) {
-
-                // Go through all instances
-                DescribeInstancesResult response = this.ec2.describeInstances(instRequest);
-
-                for (Reservation reservation : response.getReservations()) {
-                    for (Instance instance : reservation.getInstances()) {
-
-                        String state = instance.getState().getName();
-
-                        StringBuilder tagsBuilder = new StringBuilder();
-                        tagsBuilder.append("tags: ");
-                        Filter filter = new Filter().withName("resource-id").withValues(instance.getInstanceId());
-                        DescribeTagsRequest tagRequest = new DescribeTagsRequest().withFilters(filter);
-                        DescribeTagsResult tagResult = this.ec2.describeTags(tagRequest);
-                        List<TagDescription> tags = tagResult.getTags();
-                        for (TagDescription tagDesc : tags) {
-                            tagsBuilder.append(tagDesc.getValue());
-                            tagsBuilder.append(" ");
-                        }
-
-                        if (print)
-                            System.out.println("instance: " + instance.getInstanceId() + ", state: " + state + ", with tags: " + tagsBuilder.toString());
-                        instances.add(instance);
+            List<Instance> instances = inventory.getInstances();
+            if (print) {
+                for (Instance instance : instances) {
+                    StringBuilder tagsBuilder = new StringBuilder();
+                    for (Tag tag : instance.getTags()) {
+                        tagsBuilder.append(tag.getValue());
+                        tagsBuilder.append(" ");
                     }
-                }
-
-                instRequest.setNextToken(response.getNextToken());
-                if (response.getNextToken() == null) {
-                    done = true;
+                    System.out.println("instance: " + instance.getInstanceId() + ", state: " + instance.getState().getName() + ", with tags: " + tagsBuilder.toString());
                 }
             }
             return instances;
@@ -347,6 +291,10 @@ public class EC2Handler {
         }
     }
 
+    public InstanceInventory getInventory() {
+        return inventory;
+    }
+
     /**
      * prints AmazonServiceException description
      * @param ase - AmazonServiceException
@@ -427,6 +375,113 @@ public class EC2Handler {
     }
 
 
+    // ************************* ComputeProvider (workers) ***************************
+
+    private static List<String> instanceIds(List<Instance> instances) {
+        List<String> instanceIds = new LinkedList<>();
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instanceIds.add(instance.getInstanceId());
+            }
+        }
+        return instanceIds;
+    }
+
+    @Override
+    public List<String> launchWorkers(int count, String instanceType) {
+        if (Constants.DEBUG_MODE) {
+            List<String> workerIds = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                workerIds.add("debug-" + UUID.randomUUID());
+            }
+            return startDebugWorkers(workerIds);
+        }
+        return instanceIds(launchWorkers_EC2Instances(count, getRoleARN(Constants.WORKERS_ROLE), Constants.USER_DATA_PATH,
+                instanceType));
+    }
+
+    @Override
+    public List<String> startWorkers(List<String> workerIds) {
+        if (Constants.DEBUG_MODE) {
+            // a debug worker thread ends when it is drained, resuming it means starting a new thread
+            return startDebugWorkers(workerIds);
+        }
+        if (workerIds.isEmpty()) {
+            return workerIds;
+        }
+        try {
+            long requestTime = System.currentTimeMillis();
+            ec2.startInstances(new StartInstancesRequest().withInstanceIds(workerIds));
+            inventory.invalidate();
+            launchTracker.track("start", workerIds, requestTime, System.currentTimeMillis());
+            System.out.println("Started instances: " + workerIds);
+            return workerIds;
+        } catch (AmazonServiceException ase) {
+            printASEException(ase);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Runs every given worker as a thread of this process, under the given id (so it reports ready under it)
+     * returns: workerIds
+     */
+    private List<String> startDebugWorkers(List<String> workerIds) {
+        for (String workerId : workerIds) {
+            Thread workerThread = new Thread(new RunnableWorker(workerId));
+            workerThread.setName("Worker-Thread");
+            workerThread.start();
+        }
+        System.out.println("Started debug workers: " + workerIds);
+        return workerIds;
+    }
+
+    @Override
+    public void stopWorkers(List<String> workerIds) {
+        if (Constants.DEBUG_MODE || workerIds.isEmpty()) {
+            return;
+        }
+        try {
+            ec2.stopInstances(new StopInstancesRequest().withInstanceIds(workerIds));
+            inventory.invalidate();
+            System.out.println("Stopped instances: " + workerIds);
+        } catch (AmazonServiceException ase) {
+            printASEException(ase);
+        }
+    }
+
+    @Override
+    public void terminateWorkers(List<String> workerIds) {
+        if (Constants.DEBUG_MODE || workerIds.isEmpty()) {
+            return;
+        }
+        // one request for all the instances
+        try {
+            ec2.terminateInstances(new TerminateInstancesRequest().withInstanceIds(workerIds));
+            inventory.invalidate();
+            launchTracker.untrack(workerIds);
+            System.out.println("Terminated instances: " + workerIds);
+        } catch (AmazonServiceException ase) {
+            printASEException(ase);
+        }
+    }
+
+    @Override
+    public List<String> listWorkers(String state) {
+        List<String> workerIds = new LinkedList<>();
+        if (Constants.DEBUG_MODE) {
+            return workerIds;
+        }
+        try {
+            for (Instance instance : inventory.getInstances(Constants.INSTANCE_TAG.WORKER.toString(), state)) {
+                workerIds.add(instance.getInstanceId());
+            }
+        } catch (AmazonServiceException ase) {
+            printASEException(ase);
+        }
+        return workerIds;
+    }
+
 
     // ************************* For tests usage ***************************
 
@@ -441,17 +496,10 @@ public class EC2Handler {
             // launch instances
             RunInstancesRequest runInstanceRequest = new RunInstancesRequest(Constants.AMI, machineCount, machineCount)
                     .withInstanceType(InstanceType.T2Micro.toString())
-                    .withKeyName(Constants.KEY_PAIR);
+                    .withKeyName(Constants.KEY_PAIR)
+                    .withTagSpecifications(typeTag(tagName.toString()));
             List<Instance> instances = this.ec2.runInstances(runInstanceRequest).getReservation().getInstances();
-
-            // tag instances with the given tag
-            for (Instance inst: instances) {
-                Tag tag = new Tag().withKey("Type").withValue(tagName.toString());
-                CreateTagsRequest createTagsRequest = new CreateTagsRequest().
-                        withResources(inst.getInstanceId())
-                        .withTags(tag);
-                ec2.createTags(createTagsRequest);
-            }
+            inventory.invalidate();
 
             System.out.println("Launch instances: " + instances);
             System.out.println("You launched: " + instances.size() + " instances" + ", with tag: " + tagName);
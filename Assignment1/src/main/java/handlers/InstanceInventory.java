@@ -0,0 +1,104 @@
+package handlers;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A cached view of the tagged (manager / workers) instances that are not terminated.
+ * The view is loaded by a single paginated DescribeInstances call, filtered on the server side by the tag key and
+ * the instance state (the tags come with the instances, no DescribeTags per instance). It is reloaded when it is
+ * older than TTL_MILLIS, or after it was invalidated - EC2Handler invalidates it on every launch, start, stop and
+ * terminate, so the callers see their own changes right away.
+ */
+public class InstanceInventory {
+
+    public static final String TAG_KEY = "Type";
+    private static final long TTL_MILLIS = 15000;
+    private static final List<String> LIVE_STATES = Arrays.asList("pending", "running", "stopping", "stopped");
+
+    private AmazonEC2 ec2;
+    private List<Instance> instances;
+    private long loadTime;
+    private int describeCalls;
+
+    public InstanceInventory(AmazonEC2 ec2) {
+        this.ec2 = ec2;
+        this.instances = null;
+        this.describeCalls = 0;
+    }
+
+    /** The next read reloads the instances from EC2 */
+    public synchronized void invalidate() {
+        instances = null;
+    }
+
+    /**
+     * returns: all the tagged instances that are not terminated (reloaded if the view is stale)
+     */
+    public synchronized List<Instance> getInstances() {
+        if (instances == null || System.currentTimeMillis() - loadTime > TTL_MILLIS) {
+            instances = load();
+            loadTime = System.currentTimeMillis();
+        }
+        return new ArrayList<>(instances);
+    }
+
+    /**
+     * params: tagValue - value of the Type tag, states - instance states to include
+     * returns: the instances with the given tag, in one of the given states
+     */
+    public List<Instance> getInstances(String tagValue, String... states) {
+        List<String> statesList = Arrays.asList(states);
+        List<Instance> result = new LinkedList<>();
+        for (Instance instance : getInstances()) {
+            if (hasTag(instance, tagValue) && statesList.contains(instance.getState().getName())) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    public static boolean hasTag(Instance instance, String tagValue) {
+        for (Tag tag : instance.getTags()) {
+            if (tag.getKey().equals(TAG_KEY) && tag.getValue().equals(tagValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns: number of DescribeInstances calls made so far (a page is a call)
+     */
+    public synchronized int getDescribeCalls() {
+        return describeCalls;
+    }
+
+    private List<Instance> load() {
+        List<Instance> loaded = new LinkedList<>();
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(
+                new Filter().withName("tag-key").withValues(TAG_KEY),
+                new Filter().withName("instance-state-name").withValues(LIVE_STATES));
+        String nextToken;
+        do {
+            DescribeInstancesResult response = ec2.describeInstances(request);
+            describeCalls++;
+            for (Reservation reservation : response.getReservations()) {
+                loaded.addAll(reservation.getInstances());
+            }
+            nextToken = response.getNextToken();
+            request.setNextToken(nextToken);
+        } while (nextToken != null);
+        return loaded;
+    }
+}
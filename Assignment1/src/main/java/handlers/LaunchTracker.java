@@ -0,0 +1,143 @@
+package handlers;
+
+import apps.Constants;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes for the workers to come up, so the reaction time of the scaling is visible:
+ *      request -> tagged: the RunInstances / StartInstances call (the tags are applied by the same call),
+ *      request -> running: until EC2 reports the instance as running.
+ * The instances that are not running yet are polled every POLL_SECONDS, all of them in one DescribeInstances call.
+ */
+public class LaunchTracker {
+
+    private static final int POLL_SECONDS = 5;
+
+    private AmazonEC2 ec2;
+    private Map<String, Long> requestTimes;     // <instance id, request time> of the instances that are not running yet
+    private Map<String, String> requestKinds;   // <instance id, kind>
+    private Map<String, long[]> stats;          // <kind, <requested, sum tagged, running, sum running, max running>>
+    private ScheduledExecutorService poller;
+
+    public LaunchTracker(AmazonEC2 ec2) {
+        this.ec2 = ec2;
+        this.requestTimes = new HashMap<>();
+        this.requestKinds = new HashMap<>();
+        this.stats = new LinkedHashMap<>();
+        this.poller = null;
+    }
+
+    /**
+     * Starts tracking instances that were just requested.
+     * params: kind - "launch" or "start", instanceIds, requestTime - when the request was sent,
+     *         taggedTime - when the request returned (with the instances tagged)
+     */
+    public synchronized void track(String kind, List<String> instanceIds, long requestTime, long taggedTime) {
+        if (instanceIds.isEmpty()) {
+            return;
+        }
+        long[] kindStats = stats.computeIfAbsent(kind, k -> new long[5]);
+        kindStats[0] += instanceIds.size();
+        kindStats[1] += (taggedTime - requestTime) * instanceIds.size();
+        for (String instanceId : instanceIds) {
+            requestTimes.put(instanceId, requestTime);
+            requestKinds.put(instanceId, kind);
+        }
+
+        if (poller == null) {
+            poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setName("Launch-Tracker-Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poller.scheduleWithFixedDelay(this::poll, POLL_SECONDS, POLL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /** An instance that was terminated before it was running is not tracked anymore */
+    public synchronized void untrack(List<String> instanceIds) {
+        for (String instanceId : instanceIds) {
+            requestTimes.remove(instanceId);
+            requestKinds.remove(instanceId);
+        }
+    }
+
+    private void poll() {
+        List<String> instanceIds;
+        synchronized (this) {
+            instanceIds = new ArrayList<>(requestTimes.keySet());
+        }
+        if (instanceIds.isEmpty()) {
+            return;
+        }
+
+        try {
+            DescribeInstancesRequest request = new DescribeInstancesRequest().withInstanceIds(instanceIds);
+            String nextToken;
+            do {
+                DescribeInstancesResult response = ec2.describeInstances(request);
+                for (Reservation reservation : response.getReservations()) {
+                    for (Instance instance : reservation.getInstances()) {
+                        String state = instance.getState().getName();
+                        if (state.equals("running")) {
+                            running(instance.getInstanceId());
+                        }
+                        else if (!state.equals("pending")) {
+                            untrack(Collections.singletonList(instance.getInstanceId()));
+                        }
+                    }
+                }
+                nextToken = response.getNextToken();
+                request.setNextToken(nextToken);
+            } while (nextToken != null);
+        }
+        catch (Exception e) {
+            // never let an exception cancel the periodic polling
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void running(String instanceId) {
+        Long requestTime = requestTimes.remove(instanceId);
+        String kind = requestKinds.remove(instanceId);
+        if (requestTime == null) {
+            return;
+        }
+        long runningMillis = System.currentTimeMillis() - requestTime;
+        long[] kindStats = stats.get(kind);
+        kindStats[2]++;
+        kindStats[3] += runningMillis;
+        kindStats[4] = Math.max(kindStats[4], runningMillis);
+        Constants.printDEBUG("DEBUG LAUNCH: " + kind + " of " + instanceId + " took " + runningMillis + "ms to running");
+    }
+
+    /**
+     * returns: the request -> tagged and request -> running latencies, per kind (launch / start)
+     */
+    public synchronized String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : stats.entrySet()) {
+            long[] kindStats = entry.getValue();
+            metrics.append(String.format("METRICS %s latency: requested=%d avgTaggedMillis=%d running=%d " +
+                            "avgRunningMillis=%d maxRunningMillis=%d\n",
+                    entry.getKey(), kindStats[0], kindStats[1] / Math.max(kindStats[0], 1), kindStats[2],
+                    kindStats[3] / Math.max(kindStats[2], 1), kindStats[4]));
+        }
+        return metrics.toString();
+    }
+}
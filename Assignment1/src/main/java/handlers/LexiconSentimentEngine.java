@@ -0,0 +1,206 @@
+package handlers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fast sentiment engine for bulk jobs that accept a lower accuracy: every word of the review is looked up in a
+ * small polarity lexicon (-3 = very negative up to 3 = very positive), and the scores are summed with a few rules:
+ *      a negation ("not", "never", "didn't"...) flips the next scored word within NEGATION_WINDOW words (partly -
+ *      "not bad" is less positive than "good" is),
+ *      an intensifier ("very", "really"...) strengthens the next scored word,
+ *      a contrast ("but", "however"...) halves the score so far - what comes after it counts more,
+ *      every exclamation mark (up to 3) strengthens the whole review.
+ * The sum is mapped to the 0..4 scale of CoreNLP. The entities are the capitalized words in the middle of a sentence
+ * (typed MISC - there is no classifier to tell a person from a place).
+ * The review is scanned once, the words are hashed in place (64 bit FNV-1a of the lower case letters) and looked up in
+ * sorted arrays of hashes, so only the entities allocate. Stateless, shared by all the analysis threads of a worker.
+ */
+public class LexiconSentimentEngine implements SentimentEngine {
+
+    private static final int NEGATION_WINDOW = 3;
+    private static final double NEGATION_WEIGHT = -0.75;
+    private static final double INTENSIFIER_WEIGHT = 1.5;
+    private static final double CONTRAST_WEIGHT = 0.5;
+    private static final double EXCLAMATION_WEIGHT = 0.1;
+    private static final int MAX_EXCLAMATIONS = 3;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final String[] POSITIVE_3 = {"love", "loved", "loves", "excellent", "amazing", "awesome",
+            "perfect", "perfectly", "fantastic", "wonderful", "outstanding", "best", "superb", "brilliant",
+            "incredible"};
+    private static final String[] POSITIVE_2 = {"great", "good", "nice", "happy", "recommend", "recommended",
+            "beautiful", "favorite", "pleased", "glad", "enjoy", "enjoyed", "fun", "comfortable", "worth", "cute",
+            "satisfied", "useful", "helpful", "reliable", "impressed", "lovely", "sturdy"};
+    private static final String[] POSITIVE_1 = {"easy", "works", "fine", "solid", "well", "like", "liked", "fast",
+            "decent", "ok", "okay", "better", "cool", "pretty", "handy"};
+    private static final String[] NEGATIVE_1 = {"cheap", "return", "returned", "refund", "problem", "problems",
+            "issue", "issues", "difficult", "slow", "mediocre", "stopped", "meh", "small", "expensive"};
+    private static final String[] NEGATIVE_2 = {"bad", "poor", "waste", "wasted", "broke", "broken", "disappointed",
+            "disappointing", "disappointment", "flimsy", "fail", "failed", "fails", "unhappy", "annoying", "boring",
+            "sad", "worse", "ugly", "uncomfortable", "avoid", "dead", "leak", "leaks", "wrong"};
+    private static final String[] NEGATIVE_3 = {"hate", "hated", "terrible", "horrible", "awful", "worst",
+            "useless", "garbage", "junk", "defective", "crap", "sucks", "pathetic"};
+
+    private static final String[] NEGATIONS = {"not", "no", "never", "nothing", "none", "nobody", "neither", "nor",
+            "without", "hardly", "barely", "dont", "didnt", "doesnt", "isnt", "wasnt", "cant", "wont", "wouldnt"};
+    private static final String[] INTENSIFIERS = {"very", "really", "so", "extremely", "super", "absolutely",
+            "totally", "highly", "incredibly", "truly"};
+    private static final String[] CONTRASTS = {"but", "however", "although", "though"};
+
+    private static final long[] WORD_HASHES;          // sorted
+    private static final byte[] WORD_SCORES;          // by the order of WORD_HASHES
+    private static final long[] NEGATION_HASHES = hashAll(NEGATIONS);
+    private static final long[] INTENSIFIER_HASHES = hashAll(INTENSIFIERS);
+    private static final long[] CONTRAST_HASHES = hashAll(CONTRASTS);
+
+    static {
+        String[][] lists = {NEGATIVE_3, NEGATIVE_2, NEGATIVE_1, POSITIVE_1, POSITIVE_2, POSITIVE_3};
+        int[] scores = {-3, -2, -1, 1, 2, 3};
+        List<long[]> words = new ArrayList<>();      // <hash, score>
+        for (int i = 0; i < lists.length; i++) {
+            for (String word : lists[i]) {
+                words.add(new long[]{hash(word, 0, word.length()), scores[i]});
+            }
+        }
+        words.sort((a, b) -> Long.compare(a[0], b[0]));
+        WORD_HASHES = new long[words.size()];
+        WORD_SCORES = new byte[words.size()];
+        for (int i = 0; i < words.size(); i++) {
+            WORD_HASHES[i] = words.get(i)[0];
+            WORD_SCORES[i] = (byte) words.get(i)[1];
+        }
+    }
+
+    @Override
+    public ReviewAnalysis analyze(String review) {
+        List<String> entities = new ArrayList<>();
+        if (review == null || review.length() == 0) {
+            return new ReviewAnalysis(0, entities, false);
+        }
+
+        double score = 0;
+        double intensity = 1;
+        int negationLeft = 0;
+        int exclamations = 0;
+        boolean sentenceStart = true;
+        int length = review.length();
+        int i = 0;
+        while (i < length) {
+            char c = review.charAt(i);
+            if (!Character.isLetter(c)) {
+                if (c == '.' || c == '!' || c == '?') {
+                    sentenceStart = true;
+                }
+                if (c == '!') {
+                    exclamations++;
+                }
+                i++;
+                continue;
+            }
+
+            // a word - letters and apostrophes (don't, Amazon's)
+            int start = i;
+            while (i < length && (Character.isLetter(review.charAt(i)) || review.charAt(i) == '\'')) {
+                i++;
+            }
+            long wordHash = hash(review, start, i);
+            int scoreIndex = Arrays.binarySearch(WORD_HASHES, wordHash);
+
+            if (Arrays.binarySearch(NEGATION_HASHES, wordHash) >= 0 || endsWithNt(review, start, i)) {
+                negationLeft = NEGATION_WINDOW;
+            }
+            else if (Arrays.binarySearch(INTENSIFIER_HASHES, wordHash) >= 0) {
+                intensity = INTENSIFIER_WEIGHT;
+            }
+            else if (Arrays.binarySearch(CONTRAST_HASHES, wordHash) >= 0) {
+                score *= CONTRAST_WEIGHT;
+            }
+            else {
+                if (scoreIndex >= 0) {
+                    double wordScore = WORD_SCORES[scoreIndex] * intensity;
+                    score += negationLeft > 0 ? wordScore * NEGATION_WEIGHT : wordScore;
+                    negationLeft = 0;
+                    intensity = 1;
+                }
+                else if (negationLeft > 0) {
+                    negationLeft--;
+                }
+
+                // a capitalized word in the middle of a sentence (not "I") is taken as an entity
+                if (!sentenceStart && scoreIndex < 0 && i - start > 1 && Character.isUpperCase(c)) {
+                    entities.add(review.substring(start, i) + ":MISC");
+                }
+            }
+            sentenceStart = false;
+        }
+
+        score *= 1 + EXCLAMATION_WEIGHT * Math.min(exclamations, MAX_EXCLAMATIONS);
+        return new ReviewAnalysis(toSentiment(score), entities, false);
+    }
+
+    /**
+     * The reviews are analyzed one after the other on the calling thread, a review takes microseconds - less than
+     * handing it to another thread.
+     */
+    @Override
+    public List<ReviewAnalysis> analyze(List<String> reviews, int numThreads) {
+        List<ReviewAnalysis> analyses = new ArrayList<>(reviews.size());
+        for (String review : reviews) {
+            analyses.add(analyze(review));
+        }
+        return analyses;
+    }
+
+    /**
+     * returns: the score on the 0 = very negative up to 4 = very positive scale
+     */
+    private static int toSentiment(double score) {
+        if (score >= 3) {
+            return 4;
+        }
+        if (score >= 1) {
+            return 3;
+        }
+        if (score > -1) {
+            return 2;
+        }
+        if (score > -3) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * returns: the hash of the lower case letters of text[start, end) (the apostrophes are skipped)
+     */
+    private static long hash(String text, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\'') {
+                hash ^= Character.toLowerCase(c);
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static long[] hashAll(String[] words) {
+        long[] hashes = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            hashes[i] = hash(words[i], 0, words[i].length());
+        }
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    /** didn't, isn't, can't... */
+    private static boolean endsWithNt(String text, int start, int end) {
+        return end - start > 3 && text.charAt(end - 3) == 'n' && text.charAt(end - 2) == '\''
+                && Character.toLowerCase(text.charAt(end - 1)) == 't';
+    }
+}
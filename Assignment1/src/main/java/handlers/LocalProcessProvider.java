@@ -0,0 +1,150 @@
+package handlers;
+
+import apps.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the workers as separate JVM processes on this machine (MainWorkerClass with the manager's classpath).
+ * Unlike the debug worker threads, every worker has its own heap and can be terminated on its own, so scaling and
+ * throughput experiments can run on a single box.
+ * A process can't be paused, so a stopped worker is a worker whose process was ended and whose id is kept:
+ * starting it launches a new process under the same id. Each worker writes its output to <workerId>.log.
+ * All the processes run on the same machine, the instance type is only a label the worker reports back (so the
+ * instance type policy can be exercised locally).
+ */
+public class LocalProcessProvider implements ComputeProvider {
+
+    private static final String WORKER_HEAP = "-Xmx2g";
+    private static final long TERMINATE_WAIT_MILLIS = 5000;
+
+    private Map<String, Process> processes;     // <worker id, process>, null for stopped workers
+    private Map<String, String> instanceTypes;  // <worker id, instance type>
+    private int launchedWorkers;
+
+    public LocalProcessProvider() {
+        this.processes = new HashMap<>();
+        this.instanceTypes = new HashMap<>();
+        this.launchedWorkers = 0;
+
+        // the workers must not outlive the manager
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> terminateWorkers(listWorkers("running"))));
+    }
+
+    /**
+     * Launches a MainWorkerClass process, that reports workerId when it is drained.
+     * returns: the process, or null if it couldn't be launched
+     */
+    private Process startProcess(String workerId, String instanceType) {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, WORKER_HEAP, "-cp", System.getProperty("java.class.path"),
+                "apps.MainWorkerClass", Constants.LOCAL_WORKER_ARG, workerId, instanceType);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(workerId + ".log")));
+        try {
+            Process process = builder.start();
+            System.out.println("Launch local worker: " + workerId);
+            return process;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Ends the process of a worker, forcibly if it doesn't exit within TERMINATE_WAIT_MILLIS.
+     */
+    private static void endProcess(Process process) {
+        if (process == null || !process.isAlive()) {
+            return;
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(TERMINATE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized List<String> launchWorkers(int count, String instanceType) {
+        List<String> workerIds = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            String workerId = "local-worker-" + (++launchedWorkers);
+            Process process = startProcess(workerId, instanceType);
+            if (process != null) {
+                processes.put(workerId, process);
+                instanceTypes.put(workerId, instanceType);
+                workerIds.add(workerId);
+            }
+        }
+        return workerIds;
+    }
+
+    @Override
+    public synchronized List<String> startWorkers(List<String> workerIds) {
+        List<String> started = new ArrayList<>();
+        for (String workerId : workerIds) {
+            if (processes.containsKey(workerId) && processes.get(workerId) == null) {
+                Process process = startProcess(workerId, instanceTypes.get(workerId));
+                if (process != null) {
+                    processes.put(workerId, process);
+                    started.add(workerId);
+                } else {
+                    processes.remove(workerId);
+                    instanceTypes.remove(workerId);
+                }
+            }
+        }
+        return started;
+    }
+
+    @Override
+    public synchronized void stopWorkers(List<String> workerIds) {
+        for (String workerId : workerIds) {
+            if (processes.containsKey(workerId)) {
+                endProcess(processes.put(workerId, null));
+                System.out.println("Stopped local worker: " + workerId);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void terminateWorkers(List<String> workerIds) {
+        for (String workerId : workerIds) {
+            if (processes.containsKey(workerId)) {
+                endProcess(processes.remove(workerId));
+                instanceTypes.remove(workerId);
+                System.out.println("Terminated local worker: " + workerId);
+            }
+        }
+    }
+
+    /**
+     * A worker whose process exited on its own (drained, or crashed) is no longer running, it is listed as
+     * "terminated" until the manager stops or terminates it.
+     */
+    @Override
+    public synchronized List<String> listWorkers(String state) {
+        List<String> workerIds = new LinkedList<>();
+        for (Map.Entry<String, Process> entry : processes.entrySet()) {
+            Process process = entry.getValue();
+            String workerState = process == null ? "stopped" : process.isAlive() ? "running" : "terminated";
+            if (workerState.equals(state)) {
+                workerIds.add(entry.getKey());
+            }
+        }
+        return workerIds;
+    }
+}
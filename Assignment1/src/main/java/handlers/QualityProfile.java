@@ -0,0 +1,85 @@
+package handlers;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The quality / throughput trade-off of the CoreNLP engine, chosen per job (see Client2Manager):
+ *      FAST     - NER with the 3 class model only, no numeric or time classifiers, a short parse (40 tokens, 500ms),
+ *      BALANCED - NER with the 3 default models and the numeric classifiers (no SUTime), the default parse bounds,
+ *      ACCURATE - the full default NER of CoreNLP (with SUTime), and the whole longest sentence is parsed (up to
+ *                 1000 tokens, 10s - a review must fit in the visibility timeout of its message, see ReviewAnalyzer).
+ * A profile chooses the NER annotator (see AnnotatorLoader) and the bounds of the parse of the longest sentence (see
+ * SentimentAnalysisHandler). BALANCED is used when a job doesn't choose.
+ */
+public class QualityProfile {
+
+    public static final QualityProfile FAST = new QualityProfile("fast", AnnotatorLoader.NER_FAST, 40, 500);
+    public static final QualityProfile BALANCED = new QualityProfile("balanced", AnnotatorLoader.NER_BALANCED,
+            apps.Constants.MAX_SENTENCE_TOKENS, apps.Constants.REVIEW_TIME_BUDGET_MILLIS);
+    public static final QualityProfile ACCURATE = new QualityProfile("accurate", AnnotatorLoader.NER_FULL, 1000,
+            10000);
+
+    private static final List<QualityProfile> PROFILES = Arrays.asList(FAST, BALANCED, ACCURATE);
+
+    private String name;
+    private String nerAnnotator;
+    private int maxSentenceTokens;
+    private long timeBudgetMillis;
+
+    /**
+     * params: name, nerAnnotator - the name of the NER annotator (see AnnotatorLoader),
+     *         maxSentenceTokens, timeBudgetMillis - the bounds of the parse
+     */
+    public QualityProfile(String name, String nerAnnotator, int maxSentenceTokens, long timeBudgetMillis) {
+        this.name = name;
+        this.nerAnnotator = nerAnnotator;
+        this.maxSentenceTokens = maxSentenceTokens;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * returns: the profile with the given name, BALANCED if there is no such profile (or the name is null)
+     */
+    public static QualityProfile forName(String name) {
+        for (QualityProfile profile : PROFILES) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        return BALANCED;
+    }
+
+    /**
+     * returns: the annotators of the profile, in pipeline order (to preload them - see AnnotatorLoader)
+     */
+    public List<String> getAnnotators() {
+        return Arrays.asList("tokenize", "ssplit", "pos", "lemma", nerAnnotator, "parse", "sentiment");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getNerAnnotator() {
+        return nerAnnotator;
+    }
+
+    public int getMaxSentenceTokens() {
+        return maxSentenceTokens;
+    }
+
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "QualityProfile{" +
+                "name=" + name +
+                ", nerAnnotator=" + nerAnnotator +
+                ", maxSentenceTokens=" + maxSentenceTokens +
+                ", timeBudgetMillis=" + timeBudgetMillis +
+                '}';
+    }
+}
@@ -0,0 +1,44 @@
+package handlers;
+
+import java.util.List;
+
+/**
+ * The result of analyzing a review in one annotation pass (see SentimentAnalysisHandler.analyze).
+ */
+public class ReviewAnalysis {
+
+    private int sentiment;
+    private List<String> entities;
+    private boolean approximate;
+
+    /**
+     * params: sentiment - 0 = very negative up to 4 = very positive, entities - word:type of every token,
+     *         approximate - the sentiment was estimated within the cost bounds, not found on the whole sentence
+     */
+    public ReviewAnalysis(int sentiment, List<String> entities, boolean approximate) {
+        this.sentiment = sentiment;
+        this.entities = entities;
+        this.approximate = approximate;
+    }
+
+    public int getSentiment() {
+        return sentiment;
+    }
+
+    public List<String> getEntities() {
+        return entities;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    @Override
+    public String toString() {
+        return "ReviewAnalysis{" +
+                "sentiment=" + sentiment +
+                ", entities=" + entities +
+                ", approximate=" + approximate +
+                '}';
+    }
+}
@@ -101,6 +101,16 @@ public class S3Handler {
         return keyName;
     }
 
+    /**
+     * Uploads the given content to S3 under keyName.
+     * params: bucketName, keyName, content
+     * returns: the key name of the file
+     */
+    public String uploadStringToS3(String bucketName, String keyName, String content) {
+        this.s3.putObject(bucketName, keyName, content);
+        return keyName;
+    }
+
     public BufferedReader downloadFile(String bucketName, String key) throws IOException {
         try {
             System.out.println("Downloading an object");
@@ -1,6 +1,10 @@
 package handlers;
 
+import java.util.ArrayList;
 import java.util.List;
+
+import apps.Constants;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.InstanceProfileCredentialsProvider;
@@ -9,6 +13,7 @@ import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
@@ -82,14 +87,14 @@ public class SQSHandler {
         if (shortPolling) {
             if (visibility_timeout)
                 receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl)
-                        .withVisibilityTimeout(20);
+                        .withVisibilityTimeout(Constants.VISIBILITY_TIMEOUT_SECONDS);
             else
                 receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl);
         } else {
             if (visibility_timeout)
                 receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl)
                         .withWaitTimeSeconds(20)
-                        .withVisibilityTimeout(20);
+                        .withVisibilityTimeout(Constants.VISIBILITY_TIMEOUT_SECONDS);
             else receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl)
                         .withWaitTimeSeconds(20);
         }
@@ -140,6 +145,47 @@ public class SQSHandler {
         }
     }
 
+    /**
+     * Hides received messages from the other receivers for the given time from now (instead of the rest of the
+     * visibility timeout they were received with)
+     * params: messages, myQueueUrl, seconds
+     * returns: the messages whose visibility was changed - a message that is missing was already visible again (its
+     *          visibility timeout passed), so it may be received by another receiver
+     */
+    public List<Message> changeVisibility(List<Message> messages, String myQueueUrl, int seconds) {
+        List<Message> changed = new ArrayList<>();
+        for (Message msg : messages) {
+            try {
+                sqs.changeMessageVisibility(myQueueUrl, msg.getReceiptHandle(), seconds);
+                changed.add(msg);
+            } catch (AmazonServiceException ase) {
+                System.out.println("Can't change the visibility of a message: " + ase.getErrorCode());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * returns: the approximate number of messages waiting in the queue (not including in-flight messages)
+     */
+    public int getQueueDepth(String myQueueUrl) {
+        return getQueueAttribute(myQueueUrl, "ApproximateNumberOfMessages");
+    }
+
+    /**
+     * returns: the approximate number of messages that were received but not deleted yet (in-flight)
+     */
+    public int getInFlightCount(String myQueueUrl) {
+        return getQueueAttribute(myQueueUrl, "ApproximateNumberOfMessagesNotVisible");
+    }
+
+    private int getQueueAttribute(String myQueueUrl, String attributeName) {
+        String value = sqs.getQueueAttributes(new GetQueueAttributesRequest(myQueueUrl)
+                .withAttributeNames(attributeName))
+                .getAttributes().get(attributeName);
+        return Integer.parseInt(value);
+    }
+
     public List<String> listQueues() {
         List<String> urls = sqs.listQueues().getQueueUrls();
         for (String queueUrl : urls) {
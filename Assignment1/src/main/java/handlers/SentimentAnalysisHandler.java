@@ -1,31 +1,177 @@
 package handlers;
 
+import apps.Constants;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
 import edu.stanford.nlp.rnn.RNNCoreAnnotations;
 import edu.stanford.nlp.sentiment.SentimentCoreAnnotations;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.util.CoreMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
 
-public class SentimentAnalysisHandler {
+/**
+ * Sentiment analysis and named entity extraction of reviews. The sentiment of a review is the sentiment of its
+ * longest sentence.
+ * In full mode the sentiment is found by the baseline pipeline (tokenize, ssplit, parse, sentiment) on the whole
+ * review, and the entities by the NER pipeline.
+ * In longest sentence mode every review is tokenized and sentence-split once, and the expensive parse and sentiment
+ * annotators run only on the longest sentence, which gives the same result, since every sentence is parsed on its
+ * own. The parse runs on copies of its tokens without their POS tags (see untagged), as it does in the baseline.
+ * The cost of the parse grows faster than the length of the sentence, so in longest sentence mode it is bounded:
+ *      only the first maxSentenceTokens tokens of the sentence are parsed,
+ *      the parse must fit in what is left of the time budget of the review - by the parse time measured so far for
+ *      sentences of that length (in buckets of BUCKET_TOKENS), a shorter prefix of the sentence is parsed if needed,
+ *      and if not even MIN_PARSE_TOKENS fit, the sentiment of the review is estimated by the LexiconSentimentEngine.
+ * A sentiment that was found on a part of the sentence (or wasn't found) is flagged as approximate.
+ * The NER annotator and the bounds of the parse are set by a quality profile (see QualityProfile), BALANCED by default.
+ */
+public class SentimentAnalysisHandler implements SentimentEngine {
 
-    private StanfordCoreNLP sentimentPipeline;
-    private StanfordCoreNLP NERPipeline;
+    private static final int BUCKET_TOKENS = 10;
+    private static final int MIN_PARSE_TOKENS = 3;
+    private static final double COST_SMOOTHING = 0.3;      // weight of the last parse in the measured parse time
+    // estimates the sentiment of a review that has no time left for a parse (stateless, shared by all the handlers)
+    private static final SentimentEngine FALLBACK = new LexiconSentimentEngine();
+
+    private AnnotationPipeline pipeline;
+    private AnnotationPipeline sentimentPipeline;  // parse and sentiment (of the longest sentence, in that mode)
+    private boolean longestSentenceOnly;
+    private int maxSentenceTokens;
+    private long timeBudgetMillis;
+    private double[] parseMillis;                   // measured parse time by sentence length bucket (0 = unknown)
 
     public SentimentAnalysisHandler(){
-        Properties props = new Properties();
-        props.put("annotators", "tokenize, ssplit, parse, sentiment");
-        this.sentimentPipeline = new StanfordCoreNLP(props);
+        this(QualityProfile.BALANCED);
+    }
+
+    public SentimentAnalysisHandler(QualityProfile profile){
+        this(Constants.LONGEST_SENTENCE_ONLY, profile.getNerAnnotator(), profile.getMaxSentenceTokens(),
+                profile.getTimeBudgetMillis());
+    }
+
+    /**
+     * A handler with the full default NER of CoreNLP.
+     */
+    public SentimentAnalysisHandler(boolean longestSentenceOnly){
+        this(longestSentenceOnly, Constants.MAX_SENTENCE_TOKENS, Constants.REVIEW_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * A handler with the full default NER of CoreNLP.
+     * params: longestSentenceOnly - parse and find the sentiment of the longest sentence only,
+     *         maxSentenceTokens, timeBudgetMillis - the bounds of the parse (in longest sentence mode)
+     */
+    public SentimentAnalysisHandler(boolean longestSentenceOnly, int maxSentenceTokens, long timeBudgetMillis){
+        this(longestSentenceOnly, AnnotatorLoader.NER_FULL, maxSentenceTokens, timeBudgetMillis);
+    }
+
+    /**
+     * params: longestSentenceOnly, nerAnnotator - the name of the NER annotator (see AnnotatorLoader),
+     *         maxSentenceTokens, timeBudgetMillis
+     */
+    private SentimentAnalysisHandler(boolean longestSentenceOnly, String nerAnnotator, int maxSentenceTokens,
+                                     long timeBudgetMillis){
+        this.longestSentenceOnly = longestSentenceOnly;
+        this.maxSentenceTokens = maxSentenceTokens;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.parseMillis = new double[maxSentenceTokens / BUCKET_TOKENS + 1];
+        // the annotators are loaded once and shared by the pipelines of all the handlers (see AnnotatorLoader)
+        this.pipeline = AnnotatorLoader.getPipeline("tokenize", "ssplit", "pos", "lemma", nerAnnotator);
+        if (longestSentenceOnly) {
+            // runs on a sentence that was already tokenized and split by the first pipeline
+            this.sentimentPipeline = AnnotatorLoader.getPipeline("parse", "sentiment");
+        }
+        else {
+            // the baseline, on its own annotation of the review
+            this.sentimentPipeline = AnnotatorLoader.getPipeline("tokenize", "ssplit", "parse", "sentiment");
+        }
+    }
+
+    /**
+     * Annotates the review once, and extracts both its sentiment and its entities.
+     * returns: the sentiment (see findSentiment) and the entities (see getListOfEntities)
+     */
+    @Override
+    public ReviewAnalysis analyze(String review) {
+        return analyze(Collections.singletonList(review), 1).get(0);
+    }
+
+    /**
+     * Analyzes a batch of reviews: every pipeline runs once over the whole batch (by CoreNLP, on numThreads threads),
+     * and the sentences and tokens of every annotation are mapped back to its review.
+     * In longest sentence mode the longest sentences of all the reviews are parsed in one call too, and the time
+     * budget of every review starts with its share of the annotation of the batch.
+     * params: reviews, numThreads - the threads CoreNLP annotates the batch with
+     * returns: the analysis of every review, in the order of the reviews
+     */
+    @Override
+    public List<ReviewAnalysis> analyze(List<String> reviews, int numThreads) {
+        long startTime = System.currentTimeMillis();
+        List<Annotation> annotations = new ArrayList<>();
+        for (String review : reviews) {
+            if (review != null && review.length() > 0) {
+                annotations.add(new Annotation(review));
+            }
+        }
+        annotate(this.pipeline, annotations, numThreads);
+        long spentMillis = getShareMillis(System.currentTimeMillis() - startTime, annotations.size(), numThreads);
+
+        ReviewAnalysis[] analyses = new ReviewAnalysis[reviews.size()];
+        // the reviews whose sentiment is found by the parse of their longest sentence (or a prefix of it)
+        List<Integer> toParse = new ArrayList<>();
+        List<CoreMap> parsedSentences = new ArrayList<>();
+        List<List<String>> parsedEntities = new ArrayList<>();
+        List<Boolean> parsedApproximate = new ArrayList<>();
+
+        Iterator<Annotation> annotated = annotations.iterator();
+        for (int i = 0; i < reviews.size(); i++) {
+            String review = reviews.get(i);
+            if (review == null || review.length() == 0) {
+                analyses[i] = new ReviewAnalysis(0, new ArrayList<>(), false);
+                continue;
+            }
+            List<CoreMap> sentences = annotated.next().get(CoreAnnotations.SentencesAnnotation.class);
+            List<String> entities = getEntities(sentences);
+
+            CoreMap longestSentence = getLongestSentence(sentences);
+            if (longestSentence == null) {
+                analyses[i] = new ReviewAnalysis(0, entities, false);
+                continue;
+            }
+            if (!longestSentenceOnly) {
+                analyses[i] = new ReviewAnalysis(getBaselineSentiment(review), entities, false);
+                continue;
+            }
 
-        props = new Properties();
-        props.put("annotators", "tokenize , ssplit, pos, lemma, ner");
-        this.NERPipeline = new StanfordCoreNLP(props);
+            // the longest sentence is cut to what fits in the bounds
+            List<CoreLabel> tokens = longestSentence.get(CoreAnnotations.TokensAnnotation.class);
+            int numTokens = fittingTokens(Math.min(tokens.size(), maxSentenceTokens), timeBudgetMillis - spentMillis);
+            if (numTokens < Math.min(tokens.size(), MIN_PARSE_TOKENS)) {
+                analyses[i] = new ReviewAnalysis(FALLBACK.analyze(review).getSentiment(), entities, true);
+                continue;
+            }
+            boolean approximate = numTokens < tokens.size();
+            toParse.add(i);
+            parsedSentences.add(approximate ? getPrefix(tokens, numTokens) : longestSentence);
+            parsedEntities.add(entities);
+            parsedApproximate.add(approximate);
+        }
+
+        if (!toParse.isEmpty()) {
+            parsedSentences = parse(parsedSentences, numThreads);
+            for (int j = 0; j < toParse.size(); j++) {
+                analyses[toParse.get(j)] = new ReviewAnalysis(getSentiment(parsedSentences.get(j)),
+                        parsedEntities.get(j), parsedApproximate.get(j));
+            }
+        }
+        return Arrays.asList(analyses);
     }
 
     /**
@@ -34,23 +180,7 @@ public class SentimentAnalysisHandler {
      * The tool gives a score between 0 = very negative up to 4 = very positive.
      */
     public int findSentiment(String review) {
-        int mainSentiment = 0;
-        if (review!= null && review.length() > 0) {
-            int longest = 0;
-            Annotation annotation = this.sentimentPipeline.process(review);
-            for (CoreMap sentence : annotation
-                    .get(CoreAnnotations.SentencesAnnotation.class)) {
-                Tree tree = sentence
-                        .get(SentimentCoreAnnotations.AnnotatedTree.class);
-                int sentiment = RNNCoreAnnotations.getPredictedClass(tree);
-                String partText = sentence.toString();
-                if (partText.length() > longest) {
-                    mainSentiment = sentiment;
-                    longest = partText.length();
-                }
-            }
-        }
-        return mainSentiment;
+        return analyze(review).getSentiment();
     }
 
     /**
@@ -58,18 +188,156 @@ public class SentimentAnalysisHandler {
     Given a text extracts the entities of the text together with their entity type (e.g. Obama:Person)
     */
     public List<String> getListOfEntities(String review){
-        List<String> entities = new ArrayList<>();
+        return analyze(review).getEntities();
+    }
+
+    /**
+     * returns: the sentiment of the longest sentence of the review, by the baseline pipeline (in full mode)
+     */
+    private int getBaselineSentiment(String review) {
+        Annotation annotation = new Annotation(review);
+        this.sentimentPipeline.annotate(annotation);
+        CoreMap longestSentence = getLongestSentence(annotation.get(CoreAnnotations.SentencesAnnotation.class));
+        return longestSentence == null ? 0 : getSentiment(longestSentence);
+    }
 
-        // create an empty Annotation just with the given text
-        Annotation document = new Annotation(review);
+    /**
+     * Parses the sentences and finds their sentiment, all of them in one call.
+     * The parse time of every sentence of a batch isn't known, the thread time of the batch is split between them by
+     * their squared length, and recorded for their lengths.
+     * returns: the parsed sentences (untagged copies of the sentences), in the order of the sentences
+     */
+    private List<CoreMap> parse(List<CoreMap> sentences, int numThreads) {
+        List<Annotation> annotations = new ArrayList<>();
+        List<CoreMap> parsed = new ArrayList<>();
+        long totalWeight = 0;
+        for (CoreMap sentence : sentences) {
+            CoreMap copy = untagged(sentence);
+            List<CoreLabel> tokens = copy.get(CoreAnnotations.TokensAnnotation.class);
+            Annotation sentenceAnnotation = new Annotation(sentence.toString());
+            sentenceAnnotation.set(CoreAnnotations.TokensAnnotation.class, tokens);
+            sentenceAnnotation.set(CoreAnnotations.SentencesAnnotation.class, Collections.singletonList(copy));
+            annotations.add(sentenceAnnotation);
+            parsed.add(copy);
+            totalWeight += (long) tokens.size() * tokens.size();
+        }
+
+        long parseStart = System.currentTimeMillis();
+        // annotates the sentences themselves
+        annotate(this.sentimentPipeline, annotations, numThreads);
+        long threadMillis = getShareMillis(System.currentTimeMillis() - parseStart, sentences.size(), numThreads)
+                * sentences.size();
+
+        for (CoreMap sentence : parsed) {
+            int numTokens = sentence.get(CoreAnnotations.TokensAnnotation.class).size();
+            recordParseTime(numTokens, totalWeight == 0 ? 0
+                    : threadMillis * numTokens * numTokens / totalWeight);
+        }
+        return parsed;
+    }
+
+    /**
+     * The parser tags the words itself when their POS tags are missing, and takes the tags it is given otherwise, so
+     * a sentence that was tagged by the POS annotator could be parsed (and get a sentiment) other than in the baseline.
+     * returns: a sentence of copies of the tokens of the sentence, without their POS tags (the sentence and its tokens
+     *          are left as they are, the entities are read from them)
+     */
+    private static CoreMap untagged(CoreMap sentence) {
+        List<CoreLabel> tokens = new ArrayList<>();
+        for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
+            CoreLabel copy = new CoreLabel(token);
+            copy.remove(CoreAnnotations.PartOfSpeechAnnotation.class);
+            tokens.add(copy);
+        }
+        Annotation copy = new Annotation(sentence.toString());
+        copy.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        return copy;
+    }
+
+    private static void annotate(AnnotationPipeline pipeline, List<Annotation> annotations, int numThreads) {
+        if (numThreads > 1 && annotations.size() > 1) {
+            pipeline.annotate(annotations, numThreads);
+        }
+        else {
+            for (Annotation annotation : annotations) {
+                pipeline.annotate(annotation);
+            }
+        }
+    }
+
+    /**
+     * returns: the thread time of a single item, out of the time numItems items took together on numThreads threads
+     */
+    private static long getShareMillis(long millis, int numItems, int numThreads) {
+        if (numItems == 0) {
+            return 0;
+        }
+        return millis * Math.min(numThreads, numItems) / numItems;
+    }
+
+    /**
+     * returns: the number of tokens (up to numTokens) that can be parsed in leftMillis, by the measured parse times
+     *          (a length that wasn't measured yet is assumed to fit)
+     */
+    private int fittingTokens(int numTokens, long leftMillis) {
+        if (leftMillis <= 0) {
+            return 0;
+        }
+        for (int bucket = numTokens / BUCKET_TOKENS; bucket >= 0; bucket--) {
+            if (parseMillis[bucket] <= leftMillis) {
+                return Math.min(numTokens, bucket * BUCKET_TOKENS + BUCKET_TOKENS - 1);
+            }
+        }
+        return 0;
+    }
 
-        // run all Annotators on this text
-        this.NERPipeline.annotate(document);
+    private void recordParseTime(int numTokens, long millis) {
+        int bucket = numTokens / BUCKET_TOKENS;
+        parseMillis[bucket] = parseMillis[bucket] == 0 ? millis
+                : COST_SMOOTHING * millis + (1 - COST_SMOOTHING) * parseMillis[bucket];
+    }
 
-        // these are all the sentences in this document
-        // a CoreMap is essentially a Map that uses class objects as keys and has values with custom types
-        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    /**
+     * returns: a sentence of the first numTokens tokens
+     */
+    private static CoreMap getPrefix(List<CoreLabel> tokens, int numTokens) {
+        List<CoreLabel> prefixTokens = new ArrayList<>(tokens.subList(0, numTokens));
+        StringBuilder text = new StringBuilder();
+        for (CoreLabel token : prefixTokens) {
+            text.append(token.word()).append(' ');
+        }
+        Annotation prefix = new Annotation(text.toString().trim());
+        prefix.set(CoreAnnotations.TokensAnnotation.class, prefixTokens);
+        return prefix;
+    }
 
+    /**
+     * returns: the sentiment of a parsed sentence
+     */
+    private static int getSentiment(CoreMap sentence) {
+        Tree tree = sentence
+                .get(SentimentCoreAnnotations.AnnotatedTree.class);
+        return RNNCoreAnnotations.getPredictedClass(tree);
+    }
+
+    /**
+     * returns: the first of the longest sentences (by their text), null if there is no sentence with text
+     */
+    private static CoreMap getLongestSentence(List<CoreMap> sentences) {
+        CoreMap longestSentence = null;
+        int longest = 0;
+        for (CoreMap sentence : sentences) {
+            String partText = sentence.toString();
+            if (partText.length() > longest) {
+                longestSentence = sentence;
+                longest = partText.length();
+            }
+        }
+        return longestSentence;
+    }
+
+    private static List<String> getEntities(List<CoreMap> sentences) {
+        List<String> entities = new ArrayList<>();
         for(CoreMap sentence: sentences) {
             // traversing the words in the current sentence
             // a CoreLabel is a CoreMap with additional token-specific methods
@@ -81,7 +349,6 @@ public class SentimentAnalysisHandler {
                 entities.add(word + ":" + ne);
             }
         }
-
         return entities;
     }
-}
\ No newline at end of file
+}
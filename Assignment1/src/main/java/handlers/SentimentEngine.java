@@ -0,0 +1,27 @@
+package handlers;
+
+import java.util.List;
+
+/**
+ * Finds the sentiment and the entities of reviews. A job chooses its engine by name (see Client2Manager), trading
+ * accuracy for throughput:
+ *      CORENLP - SentimentAnalysisHandler, the CoreNLP sentiment model and NER,
+ *      LEXICON - LexiconSentimentEngine, a word list and a few rules, orders of magnitude faster.
+ */
+public interface SentimentEngine {
+
+    String CORENLP = "corenlp";
+    String LEXICON = "lexicon";
+
+    /**
+     * returns: the sentiment (0 = very negative up to 4 = very positive) and the entities (word:type) of the review
+     */
+    ReviewAnalysis analyze(String review);
+
+    /**
+     * Analyzes a batch of reviews together (see SentimentAnalysisHandler.analyze).
+     * params: reviews, numThreads - the threads the engine may use for the batch
+     * returns: the analysis of every review, in the order of the reviews
+     */
+    List<ReviewAnalysis> analyze(List<String> reviews, int numThreads);
+}
@@ -1,6 +1,8 @@
 package messages;
 
 import apps.Constants;
+import handlers.QualityProfile;
+import handlers.SentimentEngine;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -13,15 +15,36 @@ public class Client2Manager extends Base {
     private String outKey;
     private long reviewsPerWorker;
     private int numFiles;
+    private String engine;
+    private String profile;
 
     /** Normal constructor */
     public Client2Manager(String bucket, String inKey, String outKey, long reviewsPerWorker, int numFiles) {
+        this(bucket, inKey, outKey, reviewsPerWorker, numFiles, SentimentEngine.CORENLP);
+    }
+
+    /**
+     * params: engine - the sentiment engine the reviews of the file are analyzed with (see SentimentEngine)
+     */
+    public Client2Manager(String bucket, String inKey, String outKey, long reviewsPerWorker, int numFiles,
+                          String engine) {
+        this(bucket, inKey, outKey, reviewsPerWorker, numFiles, engine, QualityProfile.BALANCED.getName());
+    }
+
+    /**
+     * params: engine - the sentiment engine the reviews of the file are analyzed with (see SentimentEngine),
+     *         profile - the quality profile of the CoreNLP engine (see QualityProfile)
+     */
+    public Client2Manager(String bucket, String inKey, String outKey, long reviewsPerWorker, int numFiles,
+                          String engine, String profile) {
         this.tag = Constants.TAGS.CLIENT_2_MANAGER;
         this.bucket = bucket;
         this.inKey = inKey;
         this.outKey = outKey;
         this.reviewsPerWorker = reviewsPerWorker;
         this.numFiles = numFiles;
+        this.engine = engine;
+        this.profile = profile;
     }
 
     /** Unique constructor - turn the string to Client2Manager (assumes the msg was JSON stringify) */
@@ -38,6 +61,8 @@ public class Client2Manager extends Base {
         this.outKey = (String) obj.get("outKey");
         this.reviewsPerWorker = (Long) obj.get("reviewsPerWorker");
         this.numFiles = ((Long) obj.get("numFiles")).intValue();
+        this.engine = (String) obj.getOrDefault(Constants.ENGINE, SentimentEngine.CORENLP);
+        this.profile = (String) obj.getOrDefault(Constants.PROFILE, QualityProfile.BALANCED.getName());
     }
 
     /** Turns the Client2Manager to string */
@@ -49,6 +74,8 @@ public class Client2Manager extends Base {
         obj.put(Constants.OUT_KEY, this.outKey);
         obj.put(Constants.REVIEWS_PER_WORKER, this.reviewsPerWorker);
         obj.put(Constants.NUM_FILES, this.numFiles);
+        obj.put(Constants.ENGINE, this.engine);
+        obj.put(Constants.PROFILE, this.profile);
         return obj.toJSONString();
     }
 
@@ -62,6 +89,8 @@ public class Client2Manager extends Base {
                 ", outKey='" + outKey + '\'' +
                 ", reviewsPerWorker=" + reviewsPerWorker +
                 ", numFiles=" + numFiles +
+                ", engine=" + engine +
+                ", profile=" + profile +
                 '}';
     }
 }
@@ -0,0 +1,37 @@
+package messages;
+
+
+import apps.Constants;
+import org.json.simple.JSONObject;
+
+public class Client2Manager_ack extends Base {
+
+    private Constants.TAGS tag;
+    private String senderBucket;
+
+    /** Sent by the client after it downloaded all of its results */
+    public Client2Manager_ack(String senderID) {
+        this.tag = Constants.TAGS.CLIENT_2_MANAGER_ack;
+        this.senderBucket = senderID;
+    }
+
+    public String getSenderBucket() {
+        return senderBucket;
+    }
+
+    /** Turns the Client2Manager_ack to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.TAG, this.tag.toString());
+        obj.put(Constants.SENDER_BUCKET, this.senderBucket);
+        return obj.toJSONString();
+    }
+
+    /** This is for debug purpose */
+    @Override
+    public String toString() {
+        return "Client2Manager_ack{" +
+                ", senderID=" + senderBucket +
+                '}';
+    }
+}
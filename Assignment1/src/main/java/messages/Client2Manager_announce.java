@@ -0,0 +1,71 @@
+package messages;
+
+
+import apps.Constants;
+import org.json.simple.JSONObject;
+
+public class Client2Manager_announce extends Base {
+
+    private Constants.TAGS tag;
+    private String bucket;
+    private long reviewsPerWorker;
+    private int numFiles;
+    private long totalBytes;
+    private long estimatedReviews;
+    private long maxFileReviews;
+
+    /**
+     * Sent by the client when it starts, before it uploads its files, so the manager can start launching workers
+     * while the files are uploaded. The review counts are estimated by the size of the files (AVG_REVIEW_BYTES).
+     * params: bucket, reviewsPerWorker, numFiles, totalBytes - size of all the files,
+     *         estimatedReviews - in all the files, maxFileReviews - in the biggest file
+     */
+    public Client2Manager_announce(String bucket, long reviewsPerWorker, int numFiles, long totalBytes,
+                                   long estimatedReviews, long maxFileReviews) {
+        this.tag = Constants.TAGS.CLIENT_2_MANAGER_announce;
+        this.bucket = bucket;
+        this.reviewsPerWorker = reviewsPerWorker;
+        this.numFiles = numFiles;
+        this.totalBytes = totalBytes;
+        this.estimatedReviews = estimatedReviews;
+        this.maxFileReviews = maxFileReviews;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public long getEstimatedReviews() {
+        return estimatedReviews;
+    }
+
+    public long getMaxFileReviews() {
+        return maxFileReviews;
+    }
+
+    /** Turns the Client2Manager_announce to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.TAG, this.tag.toString());
+        obj.put(Constants.BUCKET, this.bucket);
+        obj.put(Constants.REVIEWS_PER_WORKER, this.reviewsPerWorker);
+        obj.put(Constants.NUM_FILES, this.numFiles);
+        obj.put(Constants.TOTAL_BYTES, this.totalBytes);
+        obj.put(Constants.ESTIMATED_REVIEWS, this.estimatedReviews);
+        obj.put(Constants.MAX_FILE_REVIEWS, this.maxFileReviews);
+        return obj.toJSONString();
+    }
+
+    /** This is for debug purpose */
+    @Override
+    public String toString() {
+        return "Client2Manager_announce{" +
+                ", bucket=" + bucket +
+                ", reviewsPerWorker=" + reviewsPerWorker +
+                ", numFiles=" + numFiles +
+                ", totalBytes=" + totalBytes +
+                ", estimatedReviews=" + estimatedReviews +
+                ", maxFileReviews=" + maxFileReviews +
+                '}';
+    }
+}
@@ -8,12 +8,26 @@ public class Manager2Client extends Base {
     private Constants.TAGS tag;
     String inBucket;
     boolean isDone;
+    String inKey;
+    String chunkKey;
+    int chunkIndex;
+    boolean isLastChunk;
 
     /** Normal constructor */
     public Manager2Client(boolean isDone, String bucketName) {
         this.tag = Constants.TAGS.MANAGER_2_CLIENT;
         this.isDone = isDone;
         this.inBucket = bucketName;
+        this.chunkIndex = -1;
+    }
+
+    /** Partial result constructor - a chunk of the output of inKey is available on S3 under chunkKey */
+    public Manager2Client(String bucketName, String inKey, String chunkKey, int chunkIndex, boolean isLastChunk) {
+        this(false, bucketName);
+        this.inKey = inKey;
+        this.chunkKey = chunkKey;
+        this.chunkIndex = chunkIndex;
+        this.isLastChunk = isLastChunk;
     }
 
 
@@ -23,6 +37,10 @@ public class Manager2Client extends Base {
         obj.put(Constants.TAG, this.tag.toString());
         obj.put(Constants.IS_DONE, this.isDone);
         obj.put(Constants.IN_BUCKET, this.inBucket);
+        obj.put(Constants.IN_KEY, this.inKey);
+        obj.put(Constants.CHUNK_KEY, this.chunkKey);
+        obj.put(Constants.CHUNK_INDEX, this.chunkIndex);
+        obj.put(Constants.IS_LAST_CHUNK, this.isLastChunk);
         return obj.toJSONString();
     }
 
@@ -33,6 +51,10 @@ public class Manager2Client extends Base {
                 "tag=" + tag +
                 ", inBucket='" + inBucket + '\'' +
                 ", isDone=" + isDone +
+                ", inKey='" + inKey + '\'' +
+                ", chunkKey='" + chunkKey + '\'' +
+                ", chunkIndex=" + chunkIndex +
+                ", isLastChunk=" + isLastChunk +
                 '}';
     }
 }
@@ -1,6 +1,8 @@
 package messages;
 
 import apps.Constants;
+import handlers.QualityProfile;
+import handlers.SentimentEngine;
 import org.json.simple.JSONObject;
 
 public class Manager2Worker extends Base {
@@ -8,16 +10,43 @@ public class Manager2Worker extends Base {
     private Constants.TAGS tag;
     private String inBucket;
     private String inKey;
+    private String reviewId;
     private String review;
     private int rating;
+    private String engine;
+    private String profile;
 
     /** Normal constructor */
-    public Manager2Worker(String inBucket, String inKey, String review, int rating) {
+    public Manager2Worker(String inBucket, String inKey, String reviewId, String review, int rating) {
+        this(inBucket, inKey, reviewId, review, rating, SentimentEngine.CORENLP);
+    }
+
+    /**
+     * params: engine - the sentiment engine the job chose (see SentimentEngine)
+     */
+    public Manager2Worker(String inBucket, String inKey, String reviewId, String review, int rating, String engine) {
+        this(inBucket, inKey, reviewId, review, rating, engine, QualityProfile.BALANCED.getName());
+    }
+
+    /**
+     * params: engine - the sentiment engine the job chose (see SentimentEngine),
+     *         profile - the quality profile the job chose for the CoreNLP engine (see QualityProfile)
+     */
+    public Manager2Worker(String inBucket, String inKey, String reviewId, String review, int rating, String engine,
+                          String profile) {
         this.tag = Constants.TAGS.MANAGER_2_WORKER;
         this.inBucket = inBucket;
         this.inKey = inKey;
+        this.reviewId = reviewId;
         this.review = review;
         this.rating = rating;
+        this.engine = engine;
+        this.profile = profile;
+    }
+
+    /** Constructor for a review without an id */
+    public Manager2Worker(String inBucket, String inKey, String review, int rating) {
+        this(inBucket, inKey, null, review, rating);
     }
 
     /** Turns the MessageLocation to string */
@@ -26,8 +55,11 @@ public class Manager2Worker extends Base {
         obj.put(Constants.TAG, this.tag.toString());
         obj.put(Constants.IN_BUCKET, this.inBucket);
         obj.put(Constants.IN_KEY, this.inKey);
+        obj.put(Constants.REVIEW_ID, this.reviewId);
         obj.put(Constants.REVIEW, this.review);
         obj.put(Constants.RATING, this.rating);
+        obj.put(Constants.ENGINE, this.engine);
+        obj.put(Constants.PROFILE, this.profile);
         return obj.toJSONString();
     }
 
@@ -37,7 +69,10 @@ public class Manager2Worker extends Base {
         return "Messages.MessageManager2Worker{" +
                 "inBucket='" + inBucket + '\'' +
                 ", inKey='" + inKey + '\'' +
+                ", reviewId='" + reviewId + '\'' +
                 ", rating='" + rating + '\'' +
+                ", engine=" + engine +
+                ", profile=" + profile +
                 ", review=" + review +
                 '}';
     }
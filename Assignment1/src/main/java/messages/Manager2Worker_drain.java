@@ -0,0 +1,40 @@
+package messages;
+
+
+import apps.Constants;
+import org.json.simple.JSONObject;
+
+public class Manager2Worker_drain extends Base {
+
+    private Constants.TAGS tag;
+    private String workerId;
+
+    /**
+     * Tells the worker to stop taking reviews and confirm it is drained. Sent to the control queue of that worker
+     * only (see Constants.workerControlQueue), never to the shared workers queue.
+     */
+    public Manager2Worker_drain(String workerId) {
+        this.tag = Constants.TAGS.MANAGER_2_WORKER_drain;
+        this.workerId = workerId;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /** Turns the Manager2Worker_drain to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.TAG, this.tag.toString());
+        obj.put(Constants.WORKER_ID, this.workerId);
+        return obj.toJSONString();
+    }
+
+    /** This is for debug purpose */
+    @Override
+    public String toString() {
+        return "Manager2Worker_drain{" +
+                ", workerId=" + workerId +
+                '}';
+    }
+}
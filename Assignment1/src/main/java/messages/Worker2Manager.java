@@ -8,21 +8,28 @@ public class Worker2Manager extends Base {
     private Constants.TAGS tag;
     private String inBucket;
     private String inKey;
+    private String reviewId;
     private String review;
     private int sentiment;
+    private int rating;
     private String entities;
     private boolean isSarcastic;
+    private boolean isApproximate;
 
     /** Normal constructor */
-    public Worker2Manager(String inBucket, String inKey, String review,
-                          int sentiment, String entities, boolean isSarcastic) {
+    public Worker2Manager(String inBucket, String inKey, String reviewId, String review,
+                          int sentiment, int rating, String entities, boolean isSarcastic,
+                          boolean isApproximate) {
         this.tag = Constants.TAGS.WORKER_2_MANAGER;
         this.inBucket = inBucket;
         this.inKey = inKey;
+        this.reviewId = reviewId;
         this.review = review;
         this.sentiment = sentiment;
+        this.rating = rating;
         this.entities = entities;
         this.isSarcastic = isSarcastic;
+        this.isApproximate = isApproximate;
     }
 
     /** Turns the MessageLocation to string */
@@ -32,10 +39,13 @@ public class Worker2Manager extends Base {
         obj.put(Constants.TAG, this.tag.toString());
         obj.put(Constants.IN_BUCKET, this.inBucket);
         obj.put(Constants.IN_KEY, this.inKey);
+        obj.put(Constants.REVIEW_ID, this.reviewId);
         obj.put(Constants.REVIEW, this.review);
         obj.put(Constants.SENTIMENT, this.sentiment);
+        obj.put(Constants.RATING, this.rating);
         obj.put(Constants.ENTITIES, this.entities);
         obj.put(Constants.IS_SARCASTIC, this.isSarcastic);
+        obj.put(Constants.IS_APPROXIMATE, this.isApproximate);
         return obj.toJSONString();
     }
 
@@ -48,10 +58,13 @@ public class Worker2Manager extends Base {
                 "tag=" + tag +
                 ", inBucket='" + inBucket + '\'' +
                 ", inKey='" + inKey + '\'' +
+                ", reviewId='" + reviewId + '\'' +
                 ", review=" + review + '\'' +
                 ", sentiment=" + sentiment + '\'' +
+                ", rating=" + rating +
                 ", entities=" + entities + '\'' +
                 ", isSarcastic=" + isSarcastic +
+                ", isApproximate=" + isApproximate +
                 '}';
     }
 
@@ -0,0 +1,37 @@
+package messages;
+
+
+import apps.Constants;
+import org.json.simple.JSONObject;
+
+public class Worker2Manager_drained extends Base {
+
+    private Constants.TAGS tag;
+    private String workerId;
+
+    /** Sent by a worker after it received a drain message and finished all of its reviews */
+    public Worker2Manager_drained(String workerId) {
+        this.tag = Constants.TAGS.WORKER_2_MANAGER_drained;
+        this.workerId = workerId;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /** Turns the Worker2Manager_drained to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.TAG, this.tag.toString());
+        obj.put(Constants.WORKER_ID, this.workerId);
+        return obj.toJSONString();
+    }
+
+    /** This is for debug purpose */
+    @Override
+    public String toString() {
+        return "Worker2Manager_drained{" +
+                ", workerId=" + workerId +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package messages;
+
+
+import apps.Constants;
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+
+public class Worker2Manager_ready extends Base {
+
+    private Constants.TAGS tag;
+    private String workerId;
+    private String instanceType;
+    private long startupMillis;
+    private Map<String, Long> startupPhases;
+    private Map<String, Long> modelLoadMillis;
+
+    /**
+     * Sent by a worker once its analysis threads are up, right before it takes its first review
+     * params: workerId, instanceType, startupMillis - from the start of the worker to now,
+     *         startupPhases - <phase, millis> (see StartupProfile), modelLoadMillis - <annotator, millis> (these were
+     *         loaded in parallel, within the phases)
+     */
+    public Worker2Manager_ready(String workerId, String instanceType, long startupMillis,
+                                Map<String, Long> startupPhases, Map<String, Long> modelLoadMillis) {
+        this.tag = Constants.TAGS.WORKER_2_MANAGER_ready;
+        this.workerId = workerId;
+        this.instanceType = instanceType;
+        this.startupMillis = startupMillis;
+        this.startupPhases = startupPhases;
+        this.modelLoadMillis = modelLoadMillis;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public String getInstanceType() {
+        return instanceType;
+    }
+
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    public Map<String, Long> getStartupPhases() {
+        return startupPhases;
+    }
+
+    public Map<String, Long> getModelLoadMillis() {
+        return modelLoadMillis;
+    }
+
+    /** Turns the Worker2Manager_ready to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.TAG, this.tag.toString());
+        obj.put(Constants.WORKER_ID, this.workerId);
+        obj.put(Constants.INSTANCE_TYPE, this.instanceType);
+        obj.put(Constants.STARTUP_MILLIS, this.startupMillis);
+        obj.put(Constants.STARTUP_PHASES, new JSONObject(this.startupPhases));
+        obj.put(Constants.MODEL_LOAD_MILLIS, new JSONObject(this.modelLoadMillis));
+        return obj.toJSONString();
+    }
+
+    /** This is for debug purpose */
+    @Override
+    public String toString() {
+        return "Worker2Manager_ready{" +
+                ", workerId=" + workerId +
+                ", instanceType=" + instanceType +
+                ", startupMillis=" + startupMillis +
+                ", startupPhases=" + startupPhases +
+                ", modelLoadMillis=" + modelLoadMillis +
+                '}';
+    }
+}
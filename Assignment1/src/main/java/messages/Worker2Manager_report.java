@@ -0,0 +1,74 @@
+package messages;
+
+
+import apps.Constants;
+import org.json.simple.JSONObject;
+
+public class Worker2Manager_report extends Base {
+
+    private Constants.TAGS tag;
+    private String workerId;
+    private String instanceType;
+    private long processedReviews;
+    private long busyMillis;
+    private long cacheHits;
+
+    /**
+     * Sent by a worker every REPORT_EVERY_REVIEWS reviews, with its speed since the previous report
+     * params: workerId, instanceType, processedReviews, busyMillis - time spent on these reviews (without waiting),
+     *         cacheHits - how many of these reviews were answered from the worker's result cache
+     */
+    public Worker2Manager_report(String workerId, String instanceType, long processedReviews, long busyMillis,
+                                 long cacheHits) {
+        this.tag = Constants.TAGS.WORKER_2_MANAGER_report;
+        this.workerId = workerId;
+        this.instanceType = instanceType;
+        this.processedReviews = processedReviews;
+        this.busyMillis = busyMillis;
+        this.cacheHits = cacheHits;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public String getInstanceType() {
+        return instanceType;
+    }
+
+    public long getProcessedReviews() {
+        return processedReviews;
+    }
+
+    public long getBusyMillis() {
+        return busyMillis;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /** Turns the Worker2Manager_report to string */
+    public String stringifyUsingJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put(Constants.TAG, this.tag.toString());
+        obj.put(Constants.WORKER_ID, this.workerId);
+        obj.put(Constants.INSTANCE_TYPE, this.instanceType);
+        obj.put(Constants.PROCESSED_REVIEWS, this.processedReviews);
+        obj.put(Constants.BUSY_MILLIS, this.busyMillis);
+        obj.put(Constants.CACHE_HITS, this.cacheHits);
+        return obj.toJSONString();
+    }
+
+    /** This is for debug purpose */
+    @Override
+    public String toString() {
+        return "Worker2Manager_report{" +
+                ", workerId=" + workerId +
+                ", instanceType=" + instanceType +
+                ", processedReviews=" + processedReviews +
+                ", busyMillis=" + busyMillis +
+                ", cacheHits=" + cacheHits +
+                '}';
+    }
+}
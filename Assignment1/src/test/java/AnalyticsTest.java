@@ -0,0 +1,32 @@
+import apps.FileAnalytics;
+import apps.HeavyHitters;
+
+import java.util.Map;
+
+public class AnalyticsTest {
+
+    public static void main(String[] args) {
+        heavyHittersTest();
+        fileAnalyticsTest();
+    }
+
+    private static void heavyHittersTest() {
+        HeavyHitters sketch = new HeavyHitters(3);
+        String[] stream = {"Amazon", "Kindle", "Amazon", "Sony", "Apple", "Amazon", "Kindle", "Dell", "Amazon"};
+        for (String item : stream)
+            sketch.add(item);
+
+        // "Amazon" appears 4/9 > 1/3 of the stream, so it must be the top item
+        System.out.println("total: " + sketch.getTotal() + " (expected 9)");
+        for (Map.Entry<String, Long> entry : sketch.top(2))
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+    }
+
+    private static void fileAnalyticsTest() {
+        FileAnalytics analytics = new FileAnalytics();
+        analytics.addResult(4, false, 5, "[Great:O, Kindle:MISC, from:O, Amazon:ORGANIZATION]");
+        analytics.addResult(0, true, 5, "[Amazon:ORGANIZATION, delivered:O, late:O]");
+        analytics.addResult(1, false, 2, "[]");
+        System.out.println(analytics.stringifyUsingJSON());
+    }
+}
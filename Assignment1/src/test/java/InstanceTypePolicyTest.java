@@ -0,0 +1,86 @@
+import apps.CostPerReviewPolicy;
+import apps.StartupTable;
+import apps.ThroughputTable;
+import apps.WarmPool;
+import handlers.ComputeProvider;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class InstanceTypePolicyTest {
+
+    /** A local stand-in for the compute provider, counts the launched workers of every instance type */
+    private static class LocalProvider implements ComputeProvider {
+        private Map<String, Integer> launchedTypes = new LinkedHashMap<>();
+        private int launched = 0;
+
+        @Override
+        public List<String> launchWorkers(int count, String instanceType) {
+            launchedTypes.merge(instanceType, count, Integer::sum);
+            List<String> workerIds = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+                workerIds.add("worker-" + (++launched));
+            return workerIds;
+        }
+
+        @Override
+        public List<String> startWorkers(List<String> workerIds) {
+            return workerIds;
+        }
+
+        @Override
+        public void stopWorkers(List<String> workerIds) { }
+
+        @Override
+        public void terminateWorkers(List<String> workerIds) { }
+
+        @Override
+        public List<String> listWorkers(String state) {
+            return new ArrayList<>();
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, Double> prices = new LinkedHashMap<>();
+        prices.put("t2.large", 0.0928);
+        prices.put("c5.large", 0.085);
+        prices.put("c5.xlarge", 0.17);
+        CostPerReviewPolicy policy = new CostPerReviewPolicy(prices, "t2.large");
+        ThroughputTable throughput = new ThroughputTable();
+        LocalProvider provider = new LocalProvider();
+        WarmPool pool = new WarmPool(provider, policy, throughput, new StartupTable());
+
+        // nothing is measured - all the workers are of the default type
+        pool.acquire(3);
+        System.out.println("launched: " + provider.launchedTypes + " (expected {t2.large=3})");
+
+        // the default type is measured - every other candidate is tried by a single worker
+        throughput.record("t2.large", 20, 10000);       // 2 reviews per second
+        provider.launchedTypes.clear();
+        pool.acquire(4);
+        System.out.println("launched: " + provider.launchedTypes + " (expected {c5.large=1, c5.xlarge=1, t2.large=2})");
+
+        // c5.xlarge is 3 times faster than t2.large for less than twice the price - it's the cheapest per review
+        throughput.record("c5.large", 20, 8000);        // 2.5 reviews per second
+        throughput.record("c5.xlarge", 60, 10000);      // 6 reviews per second
+        System.out.println(String.format("cost per review: t2.large=%.8f c5.large=%.8f c5.xlarge=%.8f",
+                policy.getCostPerReview("t2.large", throughput), policy.getCostPerReview("c5.large", throughput),
+                policy.getCostPerReview("c5.xlarge", throughput)));
+        provider.launchedTypes.clear();
+        pool.acquire(2);
+        System.out.println("launched: " + provider.launchedTypes + " (expected {c5.xlarge=2})");
+
+        // the t2 instances ran out of CPU credits, their measured speed drops and they stay the most expensive
+        throughput.record("t2.large", 20, 40000);
+        System.out.println(String.format("t2.large reviews per second: %.2f (expected 1.55)",
+                throughput.getReviewsPerSecond("t2.large")));
+
+        // the reviews answered from the cache took no analysis time, the speed is of the analyzed reviews only
+        throughput.record("c5.xlarge", 60, 5000, 30);
+        System.out.println(String.format("c5.xlarge reviews per second: %.2f (expected 6.00)",
+                throughput.getReviewsPerSecond("c5.xlarge")));
+        System.out.print(throughput.getMetrics());
+    }
+}
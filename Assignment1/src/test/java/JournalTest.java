@@ -0,0 +1,59 @@
+import apps.ManagerJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+public class JournalTest {
+
+    private static final String JOURNAL = "test_journal";
+    private static final String SNAPSHOT = "test_snapshot";
+
+    public static void main(String[] args) throws IOException {
+        new File(JOURNAL).delete();
+        new File(SNAPSHOT).delete();
+
+        // write some transitions, as if the manager went down in the middle
+        ManagerJournal journal = new ManagerJournal(JOURNAL, SNAPSHOT);
+        journal.fileRegistered("bucket1", "in1", "out1", 3, 1, 2);
+        journal.fileDispatched("bucket1", "in1");
+        journal.reviewCompleted("bucket1", "in1", "R1");
+        journal.reviewCompleted("bucket1", "in1", "R2");
+        journal.reviewCompleted("bucket1", "in1", "R2");   // duplicate delivery
+        journal.chunkPublished("bucket1", "in1", 0, false);
+        journal.fileRegistered("bucket1", "in2", "out2", 5, 1, 2);
+        journal.fileRegistered("bucket2", "in1", "out1", 1, 1, 1);
+        journal.reviewCompleted("bucket2", "in1", "R9");
+        journal.fileUploaded("bucket2", "in1");
+        journal.clientFinished("bucket2");
+        journal.close();
+
+        // recover
+        journal = new ManagerJournal(JOURNAL, SNAPSHOT);
+        System.out.println("bucket2 finished (expected true): " + journal.isClientFinished("bucket2"));
+        System.out.println("in1 dispatched (expected true): " + journal.isFileDispatched("bucket1", "in1"));
+        System.out.println("in2 dispatched (expected false): " + journal.isFileDispatched("bucket1", "in2"));
+        for (Map.Entry<String, ManagerJournal.ClientState> client : journal.getRecoveredClients().entrySet()) {
+            for (Map.Entry<String, ManagerJournal.FileState> file : client.getValue().files.entrySet()) {
+                System.out.println(client.getKey() + "/" + file.getKey() +
+                        ": completed=" + file.getValue().getCompletedCount() + " " + file.getValue().completedReviews +
+                        ", lastChunk=" + file.getValue().lastChunkIndex);
+            }
+        }
+        journal.delete();
+
+        // a snapshot is written in the middle, the recovered state counts every review once
+        journal = new ManagerJournal(JOURNAL, SNAPSHOT);
+        journal.fileRegistered("bucket3", "in1", "out1", 10000, 1, 1);
+        for (int i = 0; i < 6000; i++) {
+            journal.reviewCompleted("bucket3", "in1", "R" + i);
+        }
+        journal.close();
+        journal = new ManagerJournal(JOURNAL, SNAPSHOT);
+        ManagerJournal.FileState file = journal.getRecoveredClients().get("bucket3").files.get("in1");
+        System.out.println("completed after a snapshot (expected 6000): " + file.getCompletedCount() +
+                ", since the snapshot (expected less than 6000): " + file.completedReviews.size());
+        System.out.println("snapshot size: " + new File(SNAPSHOT).length() + " bytes");
+        journal.delete();
+    }
+}
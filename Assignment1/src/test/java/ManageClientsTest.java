@@ -1,4 +1,6 @@
 import apps.ClientInfo;
+import apps.ConsumerPool;
+import apps.ManagerJournal;
 import apps.Constants;
 import apps.ManageClients;
 import handlers.EC2Handler;
@@ -86,11 +88,14 @@ public class ManageClientsTest {
             messageClientToManager = new Client2Manager(myBucket, keyJson2, "none", 1, 2);
             sqs.sendMessage(C2M_QueueURL, messageClientToManager.stringifyUsingJSON());
 
-            // Create manageClients Runnable
-            Runnable manageClients = new ManageClients(clientsInfo, new AtomicInteger(0), workersCount, new AtomicInteger(0), new PriorityQueue<Integer>(), terminate, null, ec2, s3, sqs);
-            Thread t1 = new Thread(manageClients);
-            t1.start();
-            t1.join();
+            // Run manageClients by a consumer pool - as the Manager does
+            ManagerJournal journal = new ManagerJournal(Constants.JOURNAL_PATH, Constants.SNAPSHOT_PATH);
+            ConsumerPool manageClients = new ConsumerPool("Manage-Clients", C2M_QueueURL, sqs,
+                    () -> new ManageClients(clientsInfo, new AtomicInteger(0), workersCount, new AtomicInteger(0), new PriorityQueue<Integer>(), terminate, null, ec2, s3, sqs,
+                            journal),
+                    () -> ClientInfo.areAllServed(clientsInfo) && terminate.get(), 1, 1);
+            manageClients.start(1);
+            manageClients.awaitDone();
 
             System.out.println("\n\n**** Test results: ****");
             System.out.println("* Clients info:");
@@ -98,7 +103,7 @@ public class ManageClientsTest {
 
 
         }
-        catch (InterruptedException e) {
+        catch (InterruptedException | IOException e) {
             e.printStackTrace();
         }
         finally {
@@ -137,7 +142,8 @@ public class ManageClientsTest {
             sqs.sendMessage(C2M_QueueURL, messageClientToManager2.stringifyUsingJSON());
 
             // Create manageClients Runnable
-            ManageClients manageClients = new ManageClients(clientsInfo, new AtomicInteger(0), workersCount, new AtomicInteger(0), new PriorityQueue<Integer>(), terminate, null, ec2, s3, sqs);
+            ManageClients manageClients = new ManageClients(clientsInfo, new AtomicInteger(0), workersCount, new AtomicInteger(0), new PriorityQueue<Integer>(), terminate, null, ec2, s3, sqs,
+                    new ManagerJournal(Constants.JOURNAL_PATH, Constants.SNAPSHOT_PATH));
 
             JSONParser jsonParser = new JSONParser();
             JSONObject msgObj;
@@ -1,6 +1,11 @@
 import apps.ClientInfo;
+import apps.ConsumerPool;
+import apps.CostPerReviewPolicy;
 import apps.Constants;
 import apps.ManageWorkers;
+import apps.ManagerJournal;
+import apps.ResultsPipeline;
+import apps.ScalingActuator;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.sqs.model.Message;
@@ -22,6 +27,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ManageWorkersTest {
 
@@ -47,7 +53,7 @@ public class ManageWorkersTest {
         String W2M_QueueURL = null;
         String M2C_QueueURL = null;
         String M2W_QueueURL = null;
-        Object waitingObject = new Object();
+        ScalingActuator scaler = new ScalingActuator(ec2, sqs, 1, CostPerReviewPolicy.withDefaultPrices());
         AtomicInteger a = new AtomicInteger(1);
         AtomicInteger b = new AtomicInteger(1);
         AtomicInteger c = new AtomicInteger(0);
@@ -57,8 +63,8 @@ public class ManageWorkersTest {
 
         try {
             ConcurrentMap<String, ClientInfo> clientsInfo = new ConcurrentHashMap<>();
-            Runnable manageWorkers = new ManageWorkers(clientsInfo, a,b,c,pq,d, waitingObject , ec2, s3, sqs);
-            Thread manager_thread = new Thread(manageWorkers);
+            ResultsPipeline pipeline = new ResultsPipeline(1, 1, 1, 1, 100);
+            ManagerJournal journal = new ManagerJournal(Constants.JOURNAL_PATH, Constants.SNAPSHOT_PATH);
             Runnable worker = new RunnableWorker();
             Thread worker_thread = new Thread(worker);
             System.out.println("Created Threads");
@@ -109,7 +115,12 @@ public class ManageWorkersTest {
             clientsInfo.get(my_bucket).putOutputKey(inKey, outKey, num_of_reviews);
 
 
-            manager_thread.start();
+            // run by a consumer pool - as the Manager does
+            ConsumerPool manageWorkers = new ConsumerPool("Manage-Workers", W2M_QueueURL, sqs,
+                    () -> new ManageWorkers(clientsInfo, a,b,c,pq,d, scaler, ec2, s3, sqs, pipeline, journal,
+                            new AtomicLong(0)),
+                    () -> ClientInfo.areAllServed(clientsInfo) && d.get(), 1, 1);
+            manageWorkers.start(1);
             worker_thread.start();
             System.out.println("threads started running");
 
@@ -181,7 +192,7 @@ public class ManageWorkersTest {
                 JSONObject jsonReview = (JSONObject) review;
                 String msg = jsonReview.toJSONString();
                 System.out.println("review is: "+ msg);
-                clientInfo.updateLocalOutputFile("myBucket", "inKey", msg);
+                clientInfo.updateLocalOutputFile("myBucket", "inKey", (String) jsonReview.get(Constants.ID), msg);
                 num_of_reviews++;
             }
             line = reader.readLine();
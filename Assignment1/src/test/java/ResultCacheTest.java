@@ -0,0 +1,55 @@
+import apps.ResultCache;
+import handlers.ReviewAnalysis;
+import handlers.SentimentEngine;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public class ResultCacheTest {
+
+    public static void main(String[] args) {
+        ResultCache cache = new ResultCache(2);
+        ReviewAnalysis fiveStars = new ReviewAnalysis(3, Arrays.asList("Five:O", "Stars:O"), false);
+
+        // the same text up to whitespace is the same key, a different case isn't
+        UUID key = ResultCache.keyOf(SentimentEngine.CORENLP, "Five Stars");
+        System.out.println("same key: " + key.equals(ResultCache.keyOf(SentimentEngine.CORENLP, "  Five \n Stars "))
+                + " (expected true)");
+        System.out.println("same key: " + key.equals(ResultCache.keyOf(SentimentEngine.CORENLP, "five stars"))
+                + " (expected false)");
+        // every engine has its own results
+        System.out.println("same key: " + key.equals(ResultCache.keyOf(SentimentEngine.LEXICON, "Five Stars"))
+                + " (expected false)");
+
+        System.out.println("hit: " + (cache.get(key) != null) + " (expected false)");
+        cache.put(key, fiveStars);
+        System.out.println("hit: " + cache.get(ResultCache.keyOf(SentimentEngine.CORENLP, "Five  Stars"))
+                + " (expected the Five Stars result)");
+
+        // approximate results and long reviews are not cached
+        UUID greatKey = ResultCache.keyOf(SentimentEngine.CORENLP, "Great product!");
+        cache.put(greatKey, new ReviewAnalysis(2, Arrays.asList("Great:O"), true));
+        System.out.println("hit: " + (cache.get(greatKey) != null) + " (expected false)");
+        char[] longReview = new char[2000];
+        Arrays.fill(longReview, 'a');
+        System.out.println("long review key: " + ResultCache.keyOf(SentimentEngine.CORENLP, new String(longReview))
+                + " (expected null)");
+
+        // the least recently used result is evicted
+        cache.put(greatKey, new ReviewAnalysis(4, Arrays.asList("Great:O"), false));
+        cache.get(key);
+        cache.put(ResultCache.keyOf(SentimentEngine.CORENLP, "Love it"),
+                new ReviewAnalysis(4, Arrays.asList("Love:O", "it:O"), false));
+        System.out.println("size: " + cache.size() + " (expected 2), Great product! evicted: "
+                + (cache.get(greatKey) == null) + " (expected true)");
+
+        // a repeated short review costs a hash and a map lookup
+        int repeats = 100000;
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            cache.get(ResultCache.keyOf(SentimentEngine.CORENLP, "Five Stars"));
+        }
+        System.out.println(String.format("hit cost: %.2f microseconds", (System.nanoTime() - start) / 1000.0 / repeats));
+        System.out.println(String.format("hit rate: %.2f", cache.getHitRate()));
+    }
+}
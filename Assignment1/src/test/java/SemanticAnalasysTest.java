@@ -1,9 +1,12 @@
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import apps.Constants;
+import apps.ReviewAnalyzer;
+import handlers.ReviewAnalysis;
 import handlers.SentimentAnalysisHandler;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -22,6 +25,10 @@ public class SemanticAnalasysTest {
         String fileName = args[0];
 //        test1(fileName);
         test2();
+        testOverBudget();
+        testBaseline();
+        testLongestSentenceOnly(fileName);
+        testBatch(fileName);
 
 
     }
@@ -39,6 +46,169 @@ public class SemanticAnalasysTest {
 
     }
 
+    /**
+     * A review with no time left for a parse gets the estimate of the lexicon engine, so a clearly positive 5 stars
+     * review or a clearly negative 1 star review is not flagged as sarcastic.
+     */
+    private static void testOverBudget() {
+        try {
+            // no time budget - not even MIN_PARSE_TOKENS fit
+            SentimentAnalysisHandler sa = new SentimentAnalysisHandler(true, Constants.MAX_SENTENCE_TOKENS, 0);
+            ReviewAnalysis positive = sa.analyze("I love this camera, the pictures are great and I highly recommend it!");
+            ReviewAnalysis negative = sa.analyze("Terrible charger, it broke after two days and was a waste of money.");
+            System.out.println("approximate: " + positive.isApproximate() + ", " + negative.isApproximate() +
+                    " (expected true, true)");
+            System.out.println("5 stars sarcastic: " + ReviewAnalyzer.getIsSarcastic(positive.getSentiment(), 5) +
+                    ", 1 star sarcastic: " + ReviewAnalyzer.getIsSarcastic(negative.getSentiment(), 1) +
+                    " (expected false, false)");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The longest sentence mode (unbounded) must find the same sentiment as the baseline pipeline (tokenize, ssplit,
+     * parse, sentiment - the full mode), on sample reviews whose words are often tagged otherwise by the POS annotator.
+     */
+    private static void testBaseline() {
+        String[] reviews = {
+                "I love this camera, the pictures are great and I highly recommend it!",
+                "Terrible charger, it broke after two days and was a waste of money.",
+                "Well, it works. Kind of. The battery lasts about as long as the box it came in.",
+                "The book that the store shipped late was still the best present my daughter got.",
+                "Not bad at all for the price, though the sound could be louder."
+        };
+        try {
+            SentimentAnalysisHandler baseline = new SentimentAnalysisHandler(false);
+            SentimentAnalysisHandler longestOnly = new SentimentAnalysisHandler(true, 1000, Long.MAX_VALUE);
+            int mismatches = 0;
+            for (String review : reviews) {
+                int baselineSentiment = baseline.findSentiment(review);
+                int longestOnlySentiment = longestOnly.findSentiment(review);
+                if (baselineSentiment != longestOnlySentiment) {
+                    mismatches++;
+                    System.out.println("mismatch (" + baselineSentiment + " != " + longestOnlySentiment + "): " +
+                            review);
+                }
+            }
+            System.out.println("baseline: reviews: " + reviews.length + ", mismatches: " + mismatches +
+                    " (expected 0)");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The longest sentence mode (unbounded) must find the same sentiment as the full mode (the baseline pipeline), on
+     * every review of the file.
+     * With the default bounds, only the reviews flagged as approximate may differ.
+     */
+    public static void testLongestSentenceOnly(String fileName) {
+        JSONParser parser = new JSONParser();
+        try {
+            SentimentAnalysisHandler full = new SentimentAnalysisHandler(false);
+            SentimentAnalysisHandler longestOnly = new SentimentAnalysisHandler(true, 1000, Long.MAX_VALUE);
+            SentimentAnalysisHandler bounded = new SentimentAnalysisHandler(true);
+            long fullMillis = 0, longestOnlyMillis = 0, boundedMillis = 0, maxBoundedMillis = 0;
+            int reviews = 0, mismatches = 0, approximate = 0, exactMismatches = 0;
+
+            BufferedReader reader = new BufferedReader(new FileReader(fileName));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONArray reviewsList = (JSONArray) ((JSONObject) parser.parse(line)).get(Constants.REVIEWS);
+                for (Object review : reviewsList) {
+                    String text = (String) ((JSONObject) review).get(Constants.TEXT);
+
+                    long start = System.currentTimeMillis();
+                    int fullSentiment = full.findSentiment(text);
+                    fullMillis += System.currentTimeMillis() - start;
+
+                    start = System.currentTimeMillis();
+                    int longestOnlySentiment = longestOnly.findSentiment(text);
+                    longestOnlyMillis += System.currentTimeMillis() - start;
+
+                    start = System.currentTimeMillis();
+                    ReviewAnalysis boundedAnalysis = bounded.analyze(text);
+                    long millis = System.currentTimeMillis() - start;
+                    boundedMillis += millis;
+                    maxBoundedMillis = Math.max(maxBoundedMillis, millis);
+
+                    reviews++;
+                    if (fullSentiment != longestOnlySentiment) {
+                        mismatches++;
+                        System.out.println("mismatch (" + fullSentiment + " != " + longestOnlySentiment + "): " + text);
+                    }
+                    if (boundedAnalysis.isApproximate()) {
+                        approximate++;
+                    }
+                    else if (fullSentiment != boundedAnalysis.getSentiment()) {
+                        exactMismatches++;
+                    }
+                }
+            }
+            reader.close();
+
+            System.out.println("reviews: " + reviews + ", mismatches: " + mismatches + " (expected 0)");
+            System.out.println("bounded: approximate: " + approximate + ", exact mismatches: " + exactMismatches +
+                    " (expected 0)");
+            System.out.println("full mode: " + fullMillis + "ms, longest sentence mode: " + longestOnlyMillis +
+                    "ms, bounded: " + boundedMillis + "ms (max " + maxBoundedMillis + "ms per review)");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Analyzing the reviews in batches (on all the cores) must give the same results as one by one (the bounds are
+     * off, so the results don't depend on the time)
+     */
+    public static void testBatch(String fileName) {
+        JSONParser parser = new JSONParser();
+        try {
+            List<String> texts = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new FileReader(fileName));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONArray reviewsList = (JSONArray) ((JSONObject) parser.parse(line)).get(Constants.REVIEWS);
+                for (Object review : reviewsList) {
+                    texts.add((String) ((JSONObject) review).get(Constants.TEXT));
+                }
+            }
+            reader.close();
+
+            SentimentAnalysisHandler sa = new SentimentAnalysisHandler(true, 1000, Long.MAX_VALUE);
+            long start = System.currentTimeMillis();
+            List<ReviewAnalysis> single = new ArrayList<>();
+            for (String text : texts) {
+                single.add(sa.analyze(text));
+            }
+            long singleMillis = System.currentTimeMillis() - start;
+
+            int batchSize = 16;
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            start = System.currentTimeMillis();
+            List<ReviewAnalysis> batched = new ArrayList<>();
+            for (int i = 0; i < texts.size(); i += batchSize) {
+                batched.addAll(sa.analyze(texts.subList(i, Math.min(i + batchSize, texts.size())), numThreads));
+            }
+            long batchMillis = System.currentTimeMillis() - start;
+
+            int mismatches = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                if (single.get(i).getSentiment() != batched.get(i).getSentiment()
+                        || !single.get(i).getEntities().equals(batched.get(i).getEntities())) {
+                    mismatches++;
+                    System.out.println("mismatch: " + single.get(i) + " != " + batched.get(i));
+                }
+            }
+            System.out.println("reviews: " + texts.size() + ", mismatches: " + mismatches + " (expected 0)");
+            System.out.println("one by one: " + singleMillis + "ms, batches of " + batchSize + " on " + numThreads
+                    + " threads: " + batchMillis + "ms");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void test1(String fileName) {
         JSONParser parser = new JSONParser();
         BufferedReader reader;
@@ -0,0 +1,124 @@
+import apps.Constants;
+import handlers.LexiconSentimentEngine;
+import handlers.QualityProfile;
+import handlers.ReviewAnalysis;
+import handlers.SentimentAnalysisHandler;
+import handlers.SentimentEngine;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the sentiment engines (and the quality profiles of CoreNLP) on labelled reviews (the input files of the local application): the label of a
+ * review is its rating (1..5 stars -> 0..4). For every engine it reports the reviews per second and the agreement
+ * with the labels, and for every pair of engines how often they agree - exactly, and on the polarity
+ * (negative 0-1 / neutral 2 / positive 3-4).
+ */
+public class SentimentEngineHarness {
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("To activate this test, put file paths as arguments.");
+            System.out.println("for example: /home/yaniv/workSpace/dsps/reviews/B000EVOSE4");
+            testLexicon();
+            return;
+        }
+
+        try {
+            List<String> texts = new ArrayList<>();
+            List<Integer> labels = new ArrayList<>();
+            for (String fileName : args) {
+                readReviews(fileName, texts, labels);
+            }
+
+            Map<String, SentimentEngine> engines = new LinkedHashMap<>();
+            // the CoreNLP engine in every quality profile
+            for (QualityProfile profile : new QualityProfile[]{QualityProfile.FAST, QualityProfile.BALANCED,
+                    QualityProfile.ACCURATE}) {
+                engines.put(SentimentEngine.CORENLP + "." + profile.getName(), new SentimentAnalysisHandler(profile));
+            }
+            engines.put(SentimentEngine.LEXICON, new LexiconSentimentEngine());
+
+            Map<String, int[]> sentiments = new LinkedHashMap<>();
+            for (Map.Entry<String, SentimentEngine> engine : engines.entrySet()) {
+                int[] engineSentiments = new int[texts.size()];
+                long start = System.nanoTime();
+                for (int i = 0; i < texts.size(); i++) {
+                    engineSentiments[i] = engine.getValue().analyze(texts.get(i)).getSentiment();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                sentiments.put(engine.getKey(), engineSentiments);
+
+                int[] labelArray = labels.stream().mapToInt(Integer::intValue).toArray();
+                System.out.println(String.format("%s: %d reviews, %.1f reviews/sec, label agreement %.2f " +
+                                "(polarity %.2f)", engine.getKey(), texts.size(), texts.size() / seconds,
+                        agreement(engineSentiments, labelArray, false), agreement(engineSentiments, labelArray, true)));
+            }
+
+            List<String> names = new ArrayList<>(sentiments.keySet());
+            for (int i = 0; i < names.size(); i++) {
+                for (int j = i + 1; j < names.size(); j++) {
+                    int[] a = sentiments.get(names.get(i));
+                    int[] b = sentiments.get(names.get(j));
+                    System.out.println(String.format("%s vs %s: agreement %.2f (polarity %.2f)", names.get(i),
+                            names.get(j), agreement(a, b, false), agreement(a, b, true)));
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void readReviews(String fileName, List<String> texts, List<Integer> labels) throws Exception {
+        JSONParser parser = new JSONParser();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JSONArray reviewsList = (JSONArray) ((JSONObject) parser.parse(line)).get(Constants.REVIEWS);
+            for (Object review : reviewsList) {
+                texts.add((String) ((JSONObject) review).get(Constants.TEXT));
+                labels.add(((Long) ((JSONObject) review).get(Constants.RATING)).intValue() - 1);
+            }
+        }
+        reader.close();
+    }
+
+    private static double agreement(int[] a, int[] b, boolean polarityOnly) {
+        int agree = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (polarityOnly ? polarity(a[i]) == polarity(b[i]) : a[i] == b[i]) {
+                agree++;
+            }
+        }
+        return a.length == 0 ? 0 : (double) agree / a.length;
+    }
+
+    private static int polarity(int sentiment) {
+        return Integer.compare(sentiment, 2);
+    }
+
+    /** The rules of the lexicon engine, on a few reviews */
+    private static void testLexicon() {
+        SentimentEngine lexicon = new LexiconSentimentEngine();
+        String[][] expected = {
+                {"Five Stars", "2"},
+                {"Great product! Love it.", "4"},
+                {"Not good at all, it broke after a week.", "0"},
+                {"This is the worst charger I ever bought. Horrible.", "0"},
+                {"It was not bad.", "3"},
+                {"The case looked cheap but it works really well and I love it", "4"},
+                {"I didn't like the Samsung version.", "2"},
+        };
+        for (String[] review : expected) {
+            ReviewAnalysis analysis = lexicon.analyze(review[0]);
+            System.out.println(analysis + " (expected sentiment " + review[1] + "): " + review[0]);
+        }
+    }
+}
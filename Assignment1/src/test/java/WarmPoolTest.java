@@ -0,0 +1,92 @@
+import apps.StartupTable;
+import apps.ThroughputTable;
+import apps.WarmPool;
+import handlers.ComputeProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WarmPoolTest {
+
+    /** A local stand-in for the compute provider, keeps the state of every worker in memory */
+    private static class LocalProvider implements ComputeProvider {
+        private Map<String, String> workers = new HashMap<>();
+        private int launched = 0;
+
+        @Override
+        public List<String> launchWorkers(int count, String instanceType) {
+            List<String> workerIds = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String workerId = "worker-" + (++launched);
+                workers.put(workerId, "running");
+                workerIds.add(workerId);
+            }
+            return workerIds;
+        }
+
+        @Override
+        public List<String> startWorkers(List<String> workerIds) {
+            for (String workerId : workerIds)
+                workers.put(workerId, "running");
+            return workerIds;
+        }
+
+        @Override
+        public void stopWorkers(List<String> workerIds) {
+            for (String workerId : workerIds)
+                workers.put(workerId, "stopped");
+        }
+
+        @Override
+        public void terminateWorkers(List<String> workerIds) {
+            for (String workerId : workerIds)
+                workers.put(workerId, "terminated");
+        }
+
+        @Override
+        public List<String> listWorkers(String state) {
+            List<String> workerIds = new ArrayList<>();
+            for (Map.Entry<String, String> entry : workers.entrySet())
+                if (entry.getValue().equals(state))
+                    workerIds.add(entry.getKey());
+            return workerIds;
+        }
+    }
+
+    public static void main(String[] args) {
+        LocalProvider provider = new LocalProvider();
+        StartupTable startup = new StartupTable();
+        WarmPool pool = new WarmPool(provider, throughput -> "t2.large", new ThroughputTable(), startup);
+
+        // a burst of 3 workers, nothing is warm yet - all of them are launched
+        System.out.println("acquired: " + pool.acquire(3) + " (expected 3)");
+        System.out.println("running: " + provider.listWorkers("running").size() + " (expected 3)");
+
+        // none of them reported it is ready yet, then one does
+        System.out.println("pending: " + startup.getPendingWorkers() + " (expected 3)");
+        startup.ready("worker-1", Collections.singletonMap("models", 100L));
+        System.out.println("pending: " + startup.getPendingWorkers() + " (expected 2)");
+        System.out.println(startup.getMetrics());
+
+        // scale in 2 workers - they are kept stopped, the recent demand was 3
+        List<String> running = provider.listWorkers("running");
+        pool.release(running.get(0));
+        pool.release(running.get(1));
+        System.out.println("pool size: " + pool.size() + " (expected 2), target size: " + pool.getTargetSize() + " (expected 3)");
+        System.out.println("stopped: " + provider.listWorkers("stopped").size() + " (expected 2)");
+
+        // the next burst of 4 resumes the 2 warm workers and launches only 2 new ones
+        System.out.println("acquired: " + pool.acquire(4) + " (expected 4)");
+        System.out.println("running: " + provider.listWorkers("running").size() + " (expected 5)");
+        System.out.println("launched so far: " + provider.launched + " (expected 5)");
+
+        // scale in all of them - the pool keeps 4 (the recent demand), the last one is terminated
+        for (String workerId : provider.listWorkers("running"))
+            pool.release(workerId);
+        System.out.println("pool size: " + pool.size() + " (expected 4)");
+        System.out.println("terminated: " + provider.listWorkers("terminated").size() + " (expected 1)");
+    }
+}
@@ -12,5 +12,8 @@ aws s3 cp s3://akiaj24cwsltdpfv43lqajars/jarsAss1.zip / --region us-east-1
 echo "***** unzip jarsAss1.zip *****"
 unzip -P YanivYuval /jarsAss1.zip
 
-echo "***** running our program *****"
-$JAR_COMMAND
+echo "***** running our program (on every boot, so a stopped worker resumes when it is started) *****"
+# the program is restarted if its JVM fails (a manager recovers its state from its journal on restart)
+echo "cd / && until $JAR_COMMAND; do sleep 10; done &" >> /etc/rc.d/rc.local
+chmod +x /etc/rc.d/rc.local
+cd / && until $JAR_COMMAND; do echo "***** restarting after a failure *****"; sleep 10; done